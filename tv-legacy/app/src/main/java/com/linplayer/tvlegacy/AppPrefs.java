@@ -96,6 +96,17 @@ public final class AppPrefs {
         prefs(context).edit().putString(KEY_SERVERS_JSON, v).apply();
     }
 
+    /** Writes the server list and the active id in one commit. */
+    public static void setServers(Context context, String json, String activeServerId) {
+        String v = json != null ? json : "";
+        String id = activeServerId != null ? activeServerId.trim() : "";
+        prefs(context)
+                .edit()
+                .putString(KEY_SERVERS_JSON, v)
+                .putString(KEY_ACTIVE_SERVER_ID, id)
+                .apply();
+    }
+
     public static String getActiveServerId(Context context) {
         String v = prefs(context).getString(KEY_ACTIVE_SERVER_ID, "");
         return v != null ? v : "";
@@ -6,6 +6,8 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
+import com.linplayer.tvlegacy.backend.MediaSnapshot;
+import java.util.ArrayList;
 import java.util.List;
 
 final class EpisodeAdapter extends RecyclerView.Adapter<EpisodeAdapter.Vh> {
@@ -17,10 +19,29 @@ final class EpisodeAdapter extends RecyclerView.Adapter<EpisodeAdapter.Vh> {
     private final Listener listener;
 
     EpisodeAdapter(List<Episode> episodes, Listener listener) {
-        this.episodes = episodes;
+        this.episodes = episodes != null ? new ArrayList<>(episodes) : new ArrayList<>();
         this.listener = listener;
     }
 
+    /** Updates the list to {@code next} in place, notifying only the positions that changed. */
+    void update(List<Episode> next) {
+        int old = episodes.size();
+        int now = next.size();
+        for (int i = 0; i < Math.min(old, now); i++) {
+            Episode e = next.get(i);
+            if (MediaSnapshot.sameEpisode(episodes.get(i), e)) continue;
+            episodes.set(i, e);
+            notifyItemChanged(i);
+        }
+        if (now > old) {
+            episodes.addAll(next.subList(old, now));
+            notifyItemRangeInserted(old, now - old);
+        } else if (now < old) {
+            episodes.subList(now, old).clear();
+            notifyItemRangeRemoved(now, old - now);
+        }
+    }
+
     @NonNull
     @Override
     public Vh onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -40,7 +61,7 @@ final class EpisodeAdapter extends RecyclerView.Adapter<EpisodeAdapter.Vh> {
 
     @Override
     public int getItemCount() {
-        return episodes != null ? episodes.size() : 0;
+        return episodes.size();
     }
 
     static final class Vh extends RecyclerView.ViewHolder {
@@ -11,18 +11,25 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import com.linplayer.tvlegacy.backend.Backends;
 import com.linplayer.tvlegacy.backend.Callback;
+import com.linplayer.tvlegacy.backend.MediaScheduler;
+import com.linplayer.tvlegacy.backend.MediaSnapshot;
 import java.util.Collections;
 import java.util.List;
 
 public final class EpisodeListActivity extends AppCompatActivity {
     static final String EXTRA_SHOW_ID = "show_id";
 
+    private String showId;
+    private RecyclerView list;
+    private List<Episode> shown;
+    private EpisodeAdapter adapter;
+
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_episode_list);
 
-        String showId = getIntent().getStringExtra(EXTRA_SHOW_ID);
+        showId = getIntent().getStringExtra(EXTRA_SHOW_ID);
         if (showId == null || showId.trim().isEmpty()) {
             Toast.makeText(this, "Missing show id", Toast.LENGTH_LONG).show();
             finish();
@@ -35,7 +42,7 @@ public final class EpisodeListActivity extends AppCompatActivity {
         Button backBtn = findViewById(R.id.btn_back);
         backBtn.setOnClickListener(v -> finish());
 
-        RecyclerView list = findViewById(R.id.episode_list);
+        list = findViewById(R.id.episode_list);
         list.setLayoutManager(new LinearLayoutManager(this));
 
         Backends.media(this)
@@ -59,47 +66,82 @@ public final class EpisodeListActivity extends AppCompatActivity {
                             }
                         });
 
-        Backends.media(this)
-                .listEpisodes(
+        Backends.snapshot(this)
+                .episodes(
                         showId,
                         new Callback<List<Episode>>() {
                             @Override
-                            public void onSuccess(List<Episode> episodes) {
+                            public void onSuccess(List<Episode> saved) {
                                 if (isFinishing() || isDestroyed()) return;
-                                List<Episode> safe =
-                                        episodes != null ? episodes : Collections.emptyList();
-                                list.setAdapter(
-                                        new EpisodeAdapter(
-                                                safe,
-                                                episode -> {
-                                                    Intent i =
-                                                            new Intent(
-                                                                    EpisodeListActivity.this,
-                                                                    EpisodeDetailActivity.class);
-                                                    i.putExtra(
-                                                            EpisodeDetailActivity.EXTRA_SHOW_ID,
-                                                            showId);
-                                                    i.putExtra(
-                                                            EpisodeDetailActivity
-                                                                    .EXTRA_EPISODE_INDEX,
-                                                            episode.index);
-                                                    startActivity(i);
-                                                }));
+                                if (saved == null || saved.isEmpty()) {
+                                    fetchEpisodes(MediaScheduler.INTERACTIVE);
+                                    return;
+                                }
+                                showEpisodes(saved);
+                                // Revalidate against the server, not the in-memory list.
+                                Backends.media(EpisodeListActivity.this).invalidate(showId);
+                                fetchEpisodes(MediaScheduler.BACKGROUND);
                             }
 
                             @Override
                             public void onError(Throwable error) {
                                 if (isFinishing() || isDestroyed()) return;
-                                Toast.makeText(
-                                                EpisodeListActivity.this,
-                                                "Load episodes failed: "
-                                                        + String.valueOf(error.getMessage()),
-                                                Toast.LENGTH_LONG)
-                                        .show();
-                                list.setAdapter(
-                                        new EpisodeAdapter(
-                                                Collections.emptyList(), episode -> {}));
+                                fetchEpisodes(MediaScheduler.INTERACTIVE);
                             }
                         });
     }
+
+    private void fetchEpisodes(int priority) {
+        MediaScheduler.withPriority(
+                priority,
+                () ->
+                        Backends.media(this)
+                                .listEpisodes(
+                                        showId,
+                                        new Callback<List<Episode>>() {
+                                            @Override
+                                            public void onSuccess(List<Episode> episodes) {
+                                                if (isFinishing() || isDestroyed()) return;
+                                                List<Episode> safe =
+                                                        episodes != null
+                                                                ? episodes
+                                                                : Collections.emptyList();
+                                                if (MediaSnapshot.sameEpisodes(shown, safe)) return;
+                                                showEpisodes(safe);
+                                            }
+
+                                            @Override
+                                            public void onError(Throwable error) {
+                                                if (isFinishing() || isDestroyed()) return;
+                                                if (shown != null) return; // keep the saved list
+                                                Toast.makeText(
+                                                                EpisodeListActivity.this,
+                                                                "Load episodes failed: "
+                                                                        + String.valueOf(
+                                                                                error.getMessage()),
+                                                                Toast.LENGTH_LONG)
+                                                        .show();
+                                                showEpisodes(Collections.emptyList());
+                                            }
+                                        }));
+    }
+
+    /** Shows {@code episodes}; a refresh updates the list in place, keeping scroll and focus. */
+    private void showEpisodes(List<Episode> episodes) {
+        shown = episodes;
+        if (adapter != null) {
+            adapter.update(episodes);
+            return;
+        }
+        adapter =
+                new EpisodeAdapter(
+                        episodes,
+                        episode -> {
+                            Intent i = new Intent(this, EpisodeDetailActivity.class);
+                            i.putExtra(EpisodeDetailActivity.EXTRA_SHOW_ID, showId);
+                            i.putExtra(EpisodeDetailActivity.EXTRA_EPISODE_INDEX, episode.index);
+                            startActivity(i);
+                        });
+        list.setAdapter(adapter);
+    }
 }
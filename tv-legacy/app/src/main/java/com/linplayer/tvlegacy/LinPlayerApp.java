@@ -1,6 +1,12 @@
 package com.linplayer.tvlegacy;
 
 import androidx.multidex.MultiDexApplication;
+import com.linplayer.tvlegacy.remote.RemoteControl;
 
-public final class LinPlayerApp extends MultiDexApplication {}
-
+public final class LinPlayerApp extends MultiDexApplication {
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        RemoteControl.install(this);
+    }
+}
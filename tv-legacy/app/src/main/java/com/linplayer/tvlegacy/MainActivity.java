@@ -15,12 +15,27 @@ import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import com.linplayer.tvlegacy.backend.Backends;
 import com.linplayer.tvlegacy.backend.Callback;
+import com.linplayer.tvlegacy.backend.MediaBackend;
+import com.linplayer.tvlegacy.backend.MediaScheduler;
+import com.linplayer.tvlegacy.backend.MediaSnapshot;
+import com.linplayer.tvlegacy.backend.Page;
 import com.linplayer.tvlegacy.servers.ServerStore;
 import java.util.List;
 
 public final class MainActivity extends AppCompatActivity {
     private TextView proxyStatusText;
     private RecyclerView showList;
+    // Shows are listed a page at a time, more as the grid scrolls toward the end.
+    private static final int PAGE_SIZE = 60;
+    private static final int LAST_ROW = 5;
+
+    // The grid, its first page and the backend they came from; a server switch starts over.
+    private MediaBackend shownFrom;
+    private List<Show> shownShows;
+    private ShowAdapter adapter;
+    private boolean hasMore;
+    private int loadingStart = -1;
+    private int loadingPriority;
 
     private final BroadcastReceiver statusReceiver =
             new BroadcastReceiver() {
@@ -97,38 +112,142 @@ public final class MainActivity extends AppCompatActivity {
     }
 
     private void loadShows() {
-        RecyclerView list = showList;
-        if (list == null) return;
-        Backends.media(this)
-                .listShows(
+        if (showList == null) return;
+        MediaBackend media = Backends.media(this);
+        if (media == shownFrom) {
+            // Back from another screen: keep the grid and check the server for changes.
+            fetchShows(media, MediaScheduler.BACKGROUND);
+            return;
+        }
+        shownFrom = media;
+        shownShows = null;
+        adapter = null;
+        Backends.snapshot(this)
+                .shows(
                         new Callback<List<Show>>() {
                             @Override
-                            public void onSuccess(List<Show> shows) {
-                                if (isFinishing() || isDestroyed()) return;
-                                list.setAdapter(
-                                        new ShowAdapter(
-                                                shows,
-                                                show -> {
-                                                    Intent i =
-                                                            new Intent(
-                                                                    MainActivity.this,
-                                                                    ShowDetailActivity.class);
-                                                    i.putExtra(
-                                                            ShowDetailActivity.EXTRA_SHOW_ID,
-                                                            show.id);
-                                                    startActivity(i);
-                                                }));
+                            public void onSuccess(List<Show> saved) {
+                                if (isFinishing() || isDestroyed() || media != shownFrom) return;
+                                if (saved == null || saved.isEmpty()) {
+                                    fetchShows(media, MediaScheduler.INTERACTIVE);
+                                    return;
+                                }
+                                // Draw the last known shows now; the server may take seconds.
+                                showShows(saved, true);
+                                fetchShows(media, MediaScheduler.BACKGROUND);
                             }
 
                             @Override
                             public void onError(Throwable error) {
-                                if (isFinishing() || isDestroyed()) return;
-                                Toast.makeText(
-                                                MainActivity.this,
-                                                String.valueOf(error.getMessage()),
-                                                Toast.LENGTH_LONG)
-                                        .show();
+                                if (isFinishing() || isDestroyed() || media != shownFrom) return;
+                                fetchShows(media, MediaScheduler.INTERACTIVE);
                             }
                         });
     }
+
+    private void fetchShows(MediaBackend media, int priority) {
+        MediaScheduler.withPriority(
+                priority,
+                () ->
+                        media.listShows(
+                                0,
+                                PAGE_SIZE,
+                                new Callback<Page<Show>>() {
+                                    @Override
+                                    public void onSuccess(Page<Show> page) {
+                                        if (isFinishing() || isDestroyed()) return;
+                                        if (media != shownFrom) return;
+                                        if (adapter == null) {
+                                            showShows(page.items, page.hasMore());
+                                            return;
+                                        }
+                                        if (!MediaSnapshot.sameShows(shownShows, page.items)) {
+                                            // Later pages were fetched at offsets the new first
+                                            // page may have shifted; scrolling fetches them again.
+                                            adapter.reset(page.items);
+                                            shownShows = page.items;
+                                            hasMore = page.hasMore();
+                                            loadingStart = -1;
+                                            return;
+                                        }
+                                        // Unchanged; only a grid still at one page learns
+                                        // whether more follow.
+                                        if (adapter.getItemCount() == shownShows.size()) {
+                                            hasMore = page.hasMore();
+                                        }
+                                    }
+
+                                    @Override
+                                    public void onError(Throwable error) {
+                                        if (isFinishing() || isDestroyed()) return;
+                                        if (shownShows != null) return; // keep the saved grid
+                                        Toast.makeText(
+                                                        MainActivity.this,
+                                                        String.valueOf(error.getMessage()),
+                                                        Toast.LENGTH_LONG)
+                                                .show();
+                                    }
+                                }));
+    }
+
+    /** Starts the grid with a first page of shows. */
+    private void showShows(List<Show> shows, boolean more) {
+        shownShows = shows;
+        hasMore = more;
+        loadingStart = -1;
+        adapter =
+                new ShowAdapter(
+                        shows,
+                        show -> {
+                            Intent i = new Intent(MainActivity.this, ShowDetailActivity.class);
+                            i.putExtra(ShowDetailActivity.EXTRA_SHOW_ID, show.id);
+                            startActivity(i);
+                        });
+        adapter.setNearEndListener(this::loadMore);
+        showList.setAdapter(adapter);
+    }
+
+    /**
+     * Fetches the page after the grid's last show. Scrolling toward the end asks ahead at prefetch
+     * priority; reaching the last row while that is still queued asks again at interactive
+     * priority, which the backend folds into the same request.
+     */
+    private void loadMore(int position) {
+        MediaBackend media = shownFrom;
+        ShowAdapter target = adapter;
+        if (!hasMore || media == null || target == null) return;
+        int start = target.getItemCount();
+        int priority =
+                position >= start - LAST_ROW ? MediaScheduler.INTERACTIVE : MediaScheduler.PREFETCH;
+        if (loadingStart == start && priority >= loadingPriority) return;
+        loadingStart = start;
+        loadingPriority = priority;
+        MediaScheduler.withPriority(
+                priority,
+                () ->
+                        media.listShows(
+                                start,
+                                PAGE_SIZE,
+                                new Callback<Page<Show>>() {
+                                    @Override
+                                    public void onSuccess(Page<Show> page) {
+                                        if (isFinishing() || isDestroyed()) return;
+                                        // Stale: the grid was replaced or this page is in.
+                                        if (target != adapter || target.getItemCount() != start) {
+                                            return;
+                                        }
+                                        loadingStart = -1;
+                                        hasMore = page.hasMore();
+                                        target.append(page.items);
+                                    }
+
+                                    @Override
+                                    public void onError(Throwable error) {
+                                        // Scrolling on asks again.
+                                        if (target == adapter && loadingStart == start) {
+                                            loadingStart = -1;
+                                        }
+                                    }
+                                }));
+    }
 }
@@ -7,6 +7,8 @@ import android.widget.ImageView;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
+import com.linplayer.tvlegacy.backend.MediaSnapshot;
+import java.util.ArrayList;
 import java.util.List;
 
 final class ShowAdapter extends RecyclerView.Adapter<ShowAdapter.Vh> {
@@ -14,14 +16,56 @@ final class ShowAdapter extends RecyclerView.Adapter<ShowAdapter.Vh> {
         void onShowClicked(Show show);
     }
 
+    interface NearEndListener {
+        /** {@code position} was bound within {@link #NEAR_END} items of the end. */
+        void onNearEnd(int position);
+    }
+
+    static final int NEAR_END = 20;
+
     private final List<Show> shows;
     private final Listener listener;
+    private NearEndListener nearEndListener;
 
     ShowAdapter(List<Show> shows, Listener listener) {
-        this.shows = shows;
+        this.shows = shows != null ? new ArrayList<>(shows) : new ArrayList<>();
         this.listener = listener;
     }
 
+    void setNearEndListener(NearEndListener l) {
+        nearEndListener = l;
+    }
+
+    /**
+     * Makes {@code page} the only shows, dropping later pages whose offsets it may have shifted.
+     * Only changed positions are notified, so the scroll position and focus within it survive.
+     */
+    void reset(List<Show> page) {
+        int old = shows.size();
+        int now = page.size();
+        for (int i = 0; i < Math.min(old, now); i++) {
+            Show s = page.get(i);
+            if (MediaSnapshot.sameShow(shows.get(i), s)) continue;
+            shows.set(i, s);
+            notifyItemChanged(i);
+        }
+        if (now > old) {
+            shows.addAll(old, page.subList(old, now));
+            notifyItemRangeInserted(old, now - old);
+        } else if (now < old) {
+            shows.subList(now, old).clear();
+            notifyItemRangeRemoved(now, old - now);
+        }
+    }
+
+    /** Adds the next page of shows at the end. */
+    void append(List<Show> more) {
+        if (more == null || more.isEmpty()) return;
+        int from = shows.size();
+        shows.addAll(more);
+        notifyItemRangeInserted(from, more.size());
+    }
+
     @NonNull
     @Override
     public Vh onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -37,11 +81,14 @@ final class ShowAdapter extends RecyclerView.Adapter<ShowAdapter.Vh> {
         holder.title.setText(show.title);
         ImageLoader.load(holder.poster, show.posterUrl, 640);
         holder.itemView.setOnClickListener(v -> listener.onShowClicked(show));
+        if (nearEndListener != null && position >= shows.size() - NEAR_END) {
+            nearEndListener.onNearEnd(position);
+        }
     }
 
     @Override
     public int getItemCount() {
-        return shows != null ? shows.size() : 0;
+        return shows.size();
     }
 
     static final class Vh extends RecyclerView.ViewHolder {
@@ -2,21 +2,23 @@ package com.linplayer.tvlegacy.backend;
 
 import android.os.Handler;
 import android.os.Looper;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import okhttp3.HttpUrl;
 
 final class AppExecutors {
-    private static final ExecutorService IO = Executors.newSingleThreadExecutor();
     private static final Handler MAIN = new Handler(Looper.getMainLooper());
 
     private AppExecutors() {}
 
-    static void io(Runnable r) {
-        IO.execute(r);
+    /** Backend work against {@code server} (null when local); see {@link MediaScheduler}. */
+    static void io(HttpUrl server, Runnable r) {
+        MediaScheduler.submit(server != null ? server.host() + ":" + server.port() : "", r);
     }
 
     static void main(Runnable r) {
         MAIN.post(r);
     }
-}
 
+    static void mainDelayed(Runnable r, long delayMs) {
+        MAIN.postDelayed(r, delayMs);
+    }
+}
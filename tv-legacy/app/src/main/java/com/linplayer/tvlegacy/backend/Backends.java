@@ -3,10 +3,15 @@ package com.linplayer.tvlegacy.backend;
 import android.content.Context;
 import com.linplayer.tvlegacy.servers.ServerConfig;
 import com.linplayer.tvlegacy.servers.ServerStore;
+import java.io.File;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 public final class Backends {
     private static final Object LOCK = new Object();
     private static MediaBackend media;
+    private static MediaSnapshot snapshot;
     private static String mediaKey;
 
     private Backends() {}
@@ -34,6 +39,8 @@ public final class Backends {
                 return media;
             }
             mediaKey = key;
+            snapshot = new MediaSnapshot(null);
+            File dir = new File(new File(appContext.getCacheDir(), "media-snapshot"), digest(key));
 
             if ("emby".equals(type)) {
                 media = new EmbyLikeMediaBackend(appContext, baseUrl, apiKey, "Emby");
@@ -42,15 +49,39 @@ public final class Backends {
             } else if ("plex".equals(type)) {
                 media = new PlexMediaBackend(appContext, baseUrl, apiKey);
             } else if ("webdav".equals(type)) {
-                media = new WebDavMediaBackend(appContext, baseUrl, username, password);
+                File index = new File(dir, "webdav-index.bin");
+                media = new WebDavMediaBackend(appContext, baseUrl, username, password, index);
             } else {
                 media = new DemoMediaBackend();
+                return media;
             }
 
+            snapshot = new MediaSnapshot(dir);
+            media = new SnapshotMediaBackend(media, snapshot);
             return media;
         }
     }
 
+    /** Last known listings of the active server, for drawing before {@link #media} answers. */
+    public static MediaSnapshot snapshot(Context context) {
+        media(context);
+        synchronized (LOCK) {
+            return snapshot;
+        }
+    }
+
+    private static String digest(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] d = sha1.digest(key.getBytes(Charset.forName("UTF-8")));
+            StringBuilder sb = new StringBuilder(16);
+            for (int i = 0; i < 8; i++) sb.append(String.format("%02x", d[i] & 0xff));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+
     private static String safe(String s) {
         return s != null ? s.trim() : "";
     }
@@ -7,11 +7,12 @@ import java.util.List;
 
 final class DemoMediaBackend implements MediaBackend {
     @Override
-    public void listShows(Callback<List<Show>> cb) {
+    public void listShows(int start, int limit, Callback<Page<Show>> cb) {
         AppExecutors.io(
+                null,
                 () -> {
                     try {
-                        List<Show> v = DemoData.shows();
+                        Page<Show> v = Page.slice(DemoData.shows(), start, limit);
                         AppExecutors.main(() -> cb.onSuccess(v));
                     } catch (Exception e) {
                         AppExecutors.main(() -> cb.onError(e));
@@ -22,6 +23,7 @@ final class DemoMediaBackend implements MediaBackend {
     @Override
     public void getShow(String showId, Callback<Show> cb) {
         AppExecutors.io(
+                null,
                 () -> {
                     try {
                         Show v = DemoData.findShow(showId);
@@ -35,6 +37,7 @@ final class DemoMediaBackend implements MediaBackend {
     @Override
     public void listEpisodes(String showId, Callback<List<Episode>> cb) {
         AppExecutors.io(
+                null,
                 () -> {
                     try {
                         List<Episode> v = DemoData.episodes(showId);
@@ -48,6 +51,7 @@ final class DemoMediaBackend implements MediaBackend {
     @Override
     public void getEpisode(String showId, int episodeIndex, Callback<Episode> cb) {
         AppExecutors.io(
+                null,
                 () -> {
                     try {
                         Episode found = null;
@@ -65,5 +69,8 @@ final class DemoMediaBackend implements MediaBackend {
                     }
                 });
     }
+
+    @Override
+    public void invalidate(String showId) {}
 }
 
@@ -1,27 +1,33 @@
 package com.linplayer.tvlegacy.backend;
 
 import android.content.Context;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import com.linplayer.tvlegacy.Episode;
 import com.linplayer.tvlegacy.NetworkClients;
 import com.linplayer.tvlegacy.Show;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 
 final class EmbyLikeMediaBackend implements MediaBackend {
+    private static final int EPISODE_PAGE = 200;
+    // A server that ignores StartIndex and omits TotalRecordCount would page forever.
+    private static final int MAX_EPISODE_PAGES = 50;
+
     private final Context appContext;
     private final String serverName;
     private final String apiKey;
     private final HttpUrl baseUrl;
+    private final SingleFlight flights;
+    private final EpisodeCache episodes;
 
     private final Object userLock = new Object();
     private String userId;
@@ -35,37 +41,37 @@ final class EmbyLikeMediaBackend implements MediaBackend {
 
         String rawBase = normalizeBaseUrl(baseUrl);
         this.baseUrl = rawBase.isEmpty() ? null : HttpUrl.parse(rawBase);
+        this.flights = new SingleFlight(this.baseUrl);
+        this.episodes = new EpisodeCache(flights);
     }
 
     @Override
-    public void listShows(Callback<List<Show>> cb) {
+    public void listShows(int start, int limit, Callback<Page<Show>> cb) {
         if (!isConfigured()) {
             failNotConfigured(cb);
             return;
         }
 
-        AppExecutors.io(
+        flights.load(
+                "shows/" + start + "/" + limit,
                 () -> {
-                    try {
-                        String uid = requireUserId();
-                        HttpUrl url =
-                                apiUrl("Users/" + uid + "/Items")
-                                        .addQueryParameter("IncludeItemTypes", "Series")
-                                        .addQueryParameter("Recursive", "true")
-                                        .addQueryParameter(
-                                                "Fields", "Overview,ProductionYear,Genres,CommunityRating")
-                                        .addQueryParameter("SortBy", "SortName")
-                                        .addQueryParameter("SortOrder", "Ascending")
-                                        .addQueryParameter("Limit", "50")
-                                        .build();
-                        JSONObject root = getJsonObject(url);
-                        JSONArray items = root.optJSONArray("Items");
-                        List<Show> shows = parseShows(items);
-                        AppExecutors.main(() -> cb.onSuccess(shows));
-                    } catch (Exception e) {
-                        AppExecutors.main(() -> cb.onError(e));
-                    }
-                });
+                    String uid = requireUserId();
+                    HttpUrl url =
+                            apiUrl("Users/" + uid + "/Items")
+                                    .addQueryParameter("IncludeItemTypes", "Series")
+                                    .addQueryParameter("Recursive", "true")
+                                    .addQueryParameter(
+                                            "Fields", "Overview,ProductionYear,Genres,CommunityRating")
+                                    .addQueryParameter("SortBy", "SortName")
+                                    .addQueryParameter("SortOrder", "Ascending")
+                                    .addQueryParameter("StartIndex", String.valueOf(start))
+                                    .addQueryParameter("Limit", String.valueOf(limit))
+                                    .build();
+                    List<Show> shows = new ArrayList<>();
+                    Counts counts = getJson(url, r -> readItems(r, shows, this::toShow));
+                    return new Page<>(Collections.unmodifiableList(shows), start, counts.total);
+                },
+                cb);
     }
 
     @Override
@@ -78,23 +84,20 @@ final class EmbyLikeMediaBackend implements MediaBackend {
             AppExecutors.main(() -> cb.onSuccess(null));
             return;
         }
+        String id = showId.trim();
 
-        AppExecutors.io(
+        flights.load(
+                "show/" + id,
                 () -> {
-                    try {
-                        String uid = requireUserId();
-                        HttpUrl url =
-                                apiUrl("Users/" + uid + "/Items/" + showId.trim())
-                                        .addQueryParameter(
-                                                "Fields", "Overview,ProductionYear,Genres,CommunityRating")
-                                        .build();
-                        JSONObject item = getJsonObject(url);
-                        Show show = parseShow(item);
-                        AppExecutors.main(() -> cb.onSuccess(show));
-                    } catch (Exception e) {
-                        AppExecutors.main(() -> cb.onError(e));
-                    }
-                });
+                    String uid = requireUserId();
+                    HttpUrl url =
+                            apiUrl("Users/" + uid + "/Items/" + id)
+                                    .addQueryParameter(
+                                            "Fields", "Overview,ProductionYear,Genres,CommunityRating")
+                                    .build();
+                    return getJson(url, r -> toShow(readItem(r)));
+                },
+                cb);
     }
 
     @Override
@@ -107,16 +110,9 @@ final class EmbyLikeMediaBackend implements MediaBackend {
             AppExecutors.main(() -> cb.onSuccess(Collections.emptyList()));
             return;
         }
+        String id = showId.trim();
 
-        AppExecutors.io(
-                () -> {
-                    try {
-                        List<Episode> episodes = loadEpisodes(showId.trim());
-                        AppExecutors.main(() -> cb.onSuccess(episodes));
-                    } catch (Exception e) {
-                        AppExecutors.main(() -> cb.onError(e));
-                    }
-                });
+        episodes.list(id, () -> loadEpisodes(id), cb);
     }
 
     @Override
@@ -129,25 +125,14 @@ final class EmbyLikeMediaBackend implements MediaBackend {
             AppExecutors.main(() -> cb.onSuccess(null));
             return;
         }
-        int index = episodeIndex;
+        String id = showId.trim();
 
-        AppExecutors.io(
-                () -> {
-                    try {
-                        List<Episode> episodes = loadEpisodes(showId.trim());
-                        Episode found = null;
-                        for (Episode e : episodes) {
-                            if (e != null && e.index == index) {
-                                found = e;
-                                break;
-                            }
-                        }
-                        Episode v = found;
-                        AppExecutors.main(() -> cb.onSuccess(v));
-                    } catch (Exception e) {
-                        AppExecutors.main(() -> cb.onError(e));
-                    }
-                });
+        episodes.get(id, episodeIndex, () -> loadEpisodes(id), cb);
+    }
+
+    @Override
+    public void invalidate(String showId) {
+        episodes.invalidate(showId != null ? showId.trim() : null);
     }
 
     private boolean isConfigured() {
@@ -173,7 +158,7 @@ final class EmbyLikeMediaBackend implements MediaBackend {
         return b;
     }
 
-    private String requireUserId() throws IOException, JSONException {
+    private String requireUserId() throws IOException {
         String cached = userId;
         if (cached != null && !cached.isEmpty()) return cached;
         synchronized (userLock) {
@@ -181,49 +166,51 @@ final class EmbyLikeMediaBackend implements MediaBackend {
             if (cached != null && !cached.isEmpty()) return cached;
 
             HttpUrl url = apiUrl("Users/Me").build();
-            JSONObject obj = getJsonObject(url);
-            String id = obj.optString("Id", "");
-            if (id == null || id.trim().isEmpty()) {
+            Item me = getJson(url, EmbyLikeMediaBackend::readItem);
+            String id = me != null ? me.id : "";
+            if (id.isEmpty()) {
                 throw new IOException(serverName + ": missing user id from /Users/Me");
             }
-            userId = id.trim();
+            userId = id;
             return userId;
         }
     }
 
-    private List<Episode> loadEpisodes(String showId) throws IOException, JSONException {
+    private List<Episode> loadEpisodes(String showId) throws IOException {
         String uid = requireUserId();
-        HttpUrl url =
-                apiUrl("Shows/" + showId + "/Episodes")
-                        .addQueryParameter("UserId", uid)
-                        .addQueryParameter("SortBy", "IndexNumber")
-                        .addQueryParameter("SortOrder", "Ascending")
-                        .addQueryParameter("Fields", "Overview")
-                        .addQueryParameter("Limit", "200")
-                        .build();
-        JSONObject root = getJsonObject(url);
-        JSONArray items = root.optJSONArray("Items");
-        if (items == null) return Collections.emptyList();
-
-        List<Episode> list = new ArrayList<>(items.length());
-        for (int i = 0; i < items.length(); i++) {
-            JSONObject it = items.optJSONObject(i);
-            if (it == null) continue;
-
-            String id = it.optString("Id", "");
-            if (id == null || id.trim().isEmpty()) continue;
-
-            String name = it.optString("Name", "");
-            int season = it.optInt("ParentIndexNumber", 0);
-            int ep = it.optInt("IndexNumber", 0);
-
-            int index = list.size() + 1;
-            String title =
-                    (name != null && !name.trim().isEmpty() ? name.trim() : "Episode " + index).trim();
-            String mediaUrl = streamUrl(id.trim());
-            String overview = it.optString("Overview", "");
-            String thumbUrl = primaryImageUrl(id.trim(), 640);
-            list.add(new Episode(id.trim(), index, title, mediaUrl, season, ep, overview, thumbUrl));
+        List<Episode> list = new ArrayList<>();
+        HashSet<String> seen = new HashSet<>();
+        // Long-running shows have more episodes than one response should carry: page through.
+        int start = 0;
+        for (int pages = 0; ; pages++) {
+            if (pages == MAX_EPISODE_PAGES) {
+                throw new IOException(serverName + ": too many episode pages for " + showId);
+            }
+            HttpUrl url =
+                    apiUrl("Shows/" + showId + "/Episodes")
+                            .addQueryParameter("UserId", uid)
+                            .addQueryParameter("SortBy", "IndexNumber")
+                            .addQueryParameter("SortOrder", "Ascending")
+                            .addQueryParameter("Fields", "Overview")
+                            .addQueryParameter("StartIndex", String.valueOf(start))
+                            .addQueryParameter("Limit", String.valueOf(EPISODE_PAGE))
+                            .build();
+            int before = list.size();
+            Counts counts =
+                    getJson(
+                            url,
+                            r ->
+                                    readItems(
+                                            r,
+                                            list,
+                                            it ->
+                                                    it != null && seen.add(it.id)
+                                                            ? toEpisode(it, list)
+                                                            : null));
+            // A page with nothing new means the server is repeating itself.
+            if (counts.items == 0 || list.size() == before) break;
+            start += counts.items;
+            if (counts.total >= 0 ? start >= counts.total : counts.items < EPISODE_PAGE) break;
         }
         return Collections.unmodifiableList(list);
     }
@@ -236,7 +223,8 @@ final class EmbyLikeMediaBackend implements MediaBackend {
         return url.toString();
     }
 
-    private JSONObject getJsonObject(HttpUrl url) throws IOException, JSONException {
+    /** GETs {@code url} and parses the body as it arrives, without holding it as a string. */
+    private <T> T getJson(HttpUrl url, JsonBody<T> parser) throws IOException {
         OkHttpClient client = NetworkClients.okHttp(appContext);
         Request req =
                 new Request.Builder()
@@ -256,56 +244,43 @@ final class EmbyLikeMediaBackend implements MediaBackend {
                                 + url);
             }
             ResponseBody body = resp.body();
-            String s = body != null ? body.string() : "";
-            return new JSONObject(s);
+            if (body == null) throw new IOException(serverName + ": empty response for " + url);
+            try (JsonReader r = new JsonReader(body.charStream())) {
+                return parser.read(r);
+            } catch (IllegalStateException | NumberFormatException e) {
+                // JsonReader's way of saying a value had another type than expected.
+                throw new IOException(serverName + ": unexpected JSON for " + url + ": " + e);
+            }
         }
     }
 
-    private List<Show> parseShows(JSONArray items) {
-        if (items == null) return Collections.emptyList();
-        List<Show> list = new ArrayList<>(items.length());
-        for (int i = 0; i < items.length(); i++) {
-            JSONObject it = items.optJSONObject(i);
-            if (it == null) continue;
-            Show s = parseShow(it);
-            if (s != null) list.add(s);
-        }
-        return Collections.unmodifiableList(list);
+    private Show toShow(Item it) {
+        if (it == null || it.id.isEmpty()) return null;
+        String title = !it.name.isEmpty() ? it.name : it.id;
+        String year = it.productionYear > 0 ? String.valueOf(it.productionYear) : "";
+        String rating =
+                it.communityRating > 0
+                        ? String.format(java.util.Locale.US, "%.1f", it.communityRating)
+                        : "";
+        String posterUrl = primaryImageUrl(it.id, 480);
+        String backdropUrl = backdropImageUrl(it.id, 1280);
+        return new Show(it.id, title, it.overview, posterUrl, backdropUrl, year, it.genres, rating);
     }
 
-    private Show parseShow(JSONObject it) {
-        if (it == null) return null;
-        String id = it.optString("Id", "");
-        if (id == null || id.trim().isEmpty()) return null;
-
-        String name = it.optString("Name", "");
-        String title = name != null && !name.trim().isEmpty() ? name.trim() : id.trim();
-        String overview = it.optString("Overview", "");
-        String ov = overview != null ? overview : "";
-
-        int yearInt = it.optInt("ProductionYear", 0);
-        String year = yearInt > 0 ? String.valueOf(yearInt) : "";
-
-        String genres = "";
-        JSONArray ga = it.optJSONArray("Genres");
-        if (ga != null && ga.length() > 0) {
-            StringBuilder sb = new StringBuilder();
-            for (int i = 0; i < ga.length(); i++) {
-                String g = ga.optString(i, "");
-                if (g == null || g.trim().isEmpty()) continue;
-                if (sb.length() > 0) sb.append(", ");
-                sb.append(g.trim());
-            }
-            genres = sb.toString();
-        }
-
-        double ratingValue = it.optDouble("CommunityRating", 0);
-        String rating = ratingValue > 0 ? String.format(java.util.Locale.US, "%.1f", ratingValue) : "";
-
-        String posterUrl = primaryImageUrl(id.trim(), 480);
-        String backdropUrl = backdropImageUrl(id.trim(), 1280);
-
-        return new Show(id.trim(), title, ov, posterUrl, backdropUrl, year, genres, rating);
+    /** Episode for {@code it}, numbered after the ones already in {@code list}. */
+    private Episode toEpisode(Item it, List<Episode> list) {
+        if (it == null || it.id.isEmpty()) return null;
+        int index = list.size() + 1;
+        String title = !it.name.isEmpty() ? it.name : "Episode " + index;
+        return new Episode(
+                it.id,
+                index,
+                title,
+                streamUrl(it.id),
+                it.parentIndexNumber,
+                it.indexNumber,
+                it.overview,
+                primaryImageUrl(it.id, 640));
     }
 
     private String primaryImageUrl(String itemId, int maxWidth) {
@@ -322,9 +297,145 @@ final class EmbyLikeMediaBackend implements MediaBackend {
         return b.build().toString();
     }
 
+    /**
+     * Adds the {@code Items} of a query result to {@code out} through {@code mapper} (null results
+     * are left out); everything but the item count is skipped unread.
+     */
+    private static <T> Counts readItems(JsonReader r, List<T> out, ItemMapper<T> mapper)
+            throws IOException {
+        Counts counts = new Counts();
+        r.beginObject();
+        while (r.hasNext()) {
+            String name = r.nextName();
+            if ("Items".equals(name) && r.peek() == JsonToken.BEGIN_ARRAY) {
+                r.beginArray();
+                while (r.hasNext()) {
+                    counts.items++;
+                    T v = mapper.map(readItem(r));
+                    if (v != null) out.add(v);
+                }
+                r.endArray();
+            } else if ("TotalRecordCount".equals(name)) {
+                counts.total = (int) number(r, -1);
+            } else {
+                r.skipValue();
+            }
+        }
+        r.endObject();
+        return counts;
+    }
+
+    /** The fields of one item we use, or null when it is not an object. */
+    private static Item readItem(JsonReader r) throws IOException {
+        if (r.peek() != JsonToken.BEGIN_OBJECT) {
+            r.skipValue();
+            return null;
+        }
+        Item it = new Item();
+        r.beginObject();
+        while (r.hasNext()) {
+            switch (r.nextName()) {
+                case "Id":
+                    it.id = string(r);
+                    break;
+                case "Name":
+                    it.name = string(r);
+                    break;
+                case "Overview":
+                    it.overview = string(r);
+                    break;
+                case "ProductionYear":
+                    it.productionYear = (int) number(r, 0);
+                    break;
+                case "CommunityRating":
+                    it.communityRating = number(r, 0);
+                    break;
+                case "ParentIndexNumber":
+                    it.parentIndexNumber = (int) number(r, 0);
+                    break;
+                case "IndexNumber":
+                    it.indexNumber = (int) number(r, 0);
+                    break;
+                case "Genres":
+                    it.genres = joinedStrings(r);
+                    break;
+                default:
+                    r.skipValue();
+            }
+        }
+        r.endObject();
+        return it;
+    }
+
+    /** A string or number as trimmed text; anything else as "". */
+    private static String string(JsonReader r) throws IOException {
+        JsonToken t = r.peek();
+        if (t == JsonToken.STRING || t == JsonToken.NUMBER) return r.nextString().trim();
+        r.skipValue();
+        return "";
+    }
+
+    private static double number(JsonReader r, double fallback) throws IOException {
+        JsonToken t = r.peek();
+        if (t == JsonToken.NUMBER) return r.nextDouble();
+        if (t == JsonToken.STRING) {
+            String v = r.nextString().trim();
+            try {
+                return Double.parseDouble(v);
+            } catch (NumberFormatException e) {
+                return fallback;
+            }
+        }
+        r.skipValue();
+        return fallback;
+    }
+
+    /** An array of strings joined with ", ", blanks left out. */
+    private static String joinedStrings(JsonReader r) throws IOException {
+        if (r.peek() != JsonToken.BEGIN_ARRAY) {
+            r.skipValue();
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        r.beginArray();
+        while (r.hasNext()) {
+            String g = string(r);
+            if (g.isEmpty()) continue;
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(g);
+        }
+        r.endArray();
+        return sb.toString();
+    }
+
     private static String normalizeBaseUrl(String baseUrl) {
         String v = baseUrl != null ? baseUrl.trim() : "";
         while (v.endsWith("/")) v = v.substring(0, v.length() - 1);
         return v;
     }
+
+    private interface JsonBody<T> {
+        T read(JsonReader r) throws IOException;
+    }
+
+    private interface ItemMapper<T> {
+        T map(Item it);
+    }
+
+    private static final class Counts {
+        int items;
+        int total = -1;
+    }
+
+    /** The fields of an Emby/Jellyfin item the app uses; blank when absent. */
+    private static final class Item {
+        String id = "";
+        String name = "";
+        String overview = "";
+        String genres = "";
+        int productionYear;
+        double communityRating;
+        int parentIndexNumber;
+        int indexNumber;
+    }
 }
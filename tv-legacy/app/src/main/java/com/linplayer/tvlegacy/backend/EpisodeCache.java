@@ -0,0 +1,125 @@
+package com.linplayer.tvlegacy.backend;
+
+import com.linplayer.tvlegacy.Episode;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parsed episode lists of the most recently used shows, indexed by episode index, so opening an
+ * episode of a show whose list was loaded a moment ago needs no request. Lists expire after {@link
+ * #TTL_MS}; {@link #invalidate} drops them sooner. Misses load through the backend's {@link
+ * SingleFlight}, so a list and an episode requested together still cost one fetch.
+ */
+final class EpisodeCache {
+    static final long TTL_MS = 5 * 60 * 1000L;
+    private static final int MAX_SHOWS = 16;
+
+    private final SingleFlight flights;
+    // Guarded by itself; access order, eldest evicted past MAX_SHOWS.
+    private final LinkedHashMap<String, Cached> shows =
+            new LinkedHashMap<String, Cached>(MAX_SHOWS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                    return size() > MAX_SHOWS;
+                }
+            };
+
+    EpisodeCache(SingleFlight flights) {
+        this.flights = flights;
+    }
+
+    /** Cached list of {@code showId}, else loads it with {@code loader}; {@code cb} on main. */
+    void list(
+            String showId,
+            SingleFlight.Loader<List<Episode>> loader,
+            Callback<List<Episode>> cb) {
+        load(
+                showId,
+                loader,
+                new Callback<Cached>() {
+                    @Override
+                    public void onSuccess(Cached entry) {
+                        cb.onSuccess(entry.list);
+                    }
+
+                    @Override
+                    public void onError(Throwable error) {
+                        cb.onError(error);
+                    }
+                });
+    }
+
+    /** Episode {@code index} of {@code showId}, or null; loads the list when it is not cached. */
+    void get(
+            String showId,
+            int index,
+            SingleFlight.Loader<List<Episode>> loader,
+            Callback<Episode> cb) {
+        load(
+                showId,
+                loader,
+                new Callback<Cached>() {
+                    @Override
+                    public void onSuccess(Cached entry) {
+                        cb.onSuccess(entry.byIndex.get(index));
+                    }
+
+                    @Override
+                    public void onError(Throwable error) {
+                        cb.onError(error);
+                    }
+                });
+    }
+
+    /** Drops the list of {@code showId}, or every list when it is null. */
+    void invalidate(String showId) {
+        synchronized (shows) {
+            if (showId == null) shows.clear();
+            else shows.remove(showId);
+        }
+    }
+
+    private void load(
+            String showId, SingleFlight.Loader<List<Episode>> loader, Callback<Cached> cb) {
+        Cached cached;
+        synchronized (shows) {
+            cached = shows.get(showId);
+            if (cached != null && System.nanoTime() - cached.loadedAt > TTL_MS * 1000000L) {
+                shows.remove(showId);
+                cached = null;
+            }
+        }
+        if (cached != null) {
+            Cached entry = cached;
+            AppExecutors.main(() -> cb.onSuccess(entry));
+            return;
+        }
+        flights.load(
+                "episodes/" + showId,
+                () -> {
+                    Cached entry = new Cached(loader.load());
+                    synchronized (shows) {
+                        shows.put(showId, entry);
+                    }
+                    return entry;
+                },
+                cb);
+    }
+
+    private static final class Cached {
+        final List<Episode> list;
+        final HashMap<Integer, Episode> byIndex;
+        final long loadedAt = System.nanoTime();
+
+        Cached(List<Episode> list) {
+            this.list = list != null ? list : Collections.<Episode>emptyList();
+            this.byIndex = new HashMap<>(this.list.size() * 2);
+            for (Episode e : this.list) {
+                if (e != null && !byIndex.containsKey(e.index)) byIndex.put(e.index, e);
+            }
+        }
+    }
+}
@@ -5,12 +5,16 @@ import com.linplayer.tvlegacy.Show;
 import java.util.List;
 
 public interface MediaBackend {
-    void listShows(Callback<List<Show>> cb);
+    /** Shows {@code start}.. of the library, at most {@code limit} of them. */
+    void listShows(int start, int limit, Callback<Page<Show>> cb);
 
     void getShow(String showId, Callback<Show> cb);
 
     void listEpisodes(String showId, Callback<List<Episode>> cb);
 
     void getEpisode(String showId, int episodeIndex, Callback<Episode> cb);
+
+    /** Forgets cached episodes of {@code showId}, or of every show when null. */
+    void invalidate(String showId);
 }
 
@@ -0,0 +1,199 @@
+package com.linplayer.tvlegacy.backend;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Runs backend calls on a few I/O threads. Work for the screen being shown goes ahead of prefetch
+ * and background work, and no server gets more than {@link #MAX_PER_HOST} calls at once, so a slow
+ * WebDAV listing cannot hold up the show the user just opened.
+ *
+ * <p>Calls are interactive unless made inside {@link #withPriority}; the backends pick the priority
+ * up on the calling thread when they submit.
+ */
+public final class MediaScheduler {
+    public static final int INTERACTIVE = 0;
+    public static final int PREFETCH = 1;
+    public static final int BACKGROUND = 2;
+    public static final String[] NAMES = {"interactive", "prefetch", "background"};
+
+    /** Upper bounds of the queue-wait buckets in milliseconds; a last bucket takes the rest. */
+    public static final long[] WAIT_BOUNDS_MS = {1, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000};
+
+    private static final int THREADS = 3;
+    private static final int MAX_PER_HOST = 2;
+
+    private static final Object LOCK = new Object();
+    private static final ThreadLocal<Integer> callerPriority = new ThreadLocal<>();
+
+    // Guarded by LOCK.
+    private static final ArrayDeque<Task>[] queues = newQueues();
+    private static final HashMap<String, Integer> activeByHost = new HashMap<>();
+    private static final long[] submitted = new long[NAMES.length];
+    private static final long[] waitSumNanos = new long[NAMES.length];
+    private static final long[] waitMaxNanos = new long[NAMES.length];
+    private static final long[][] waitBuckets = new long[NAMES.length][WAIT_BOUNDS_MS.length + 1];
+    private static int running;
+    private static int threads;
+
+    private MediaScheduler() {}
+
+    /** Runs {@code calls} (backend method calls) so the work they submit gets {@code priority}. */
+    public static void withPriority(int priority, Runnable calls) {
+        Integer previous = callerPriority.get();
+        callerPriority.set(Math.max(INTERACTIVE, Math.min(BACKGROUND, priority)));
+        try {
+            calls.run();
+        } finally {
+            if (previous != null) callerPriority.set(previous);
+            else callerPriority.remove();
+        }
+    }
+
+    /** Priority work submitted from the calling thread gets right now. */
+    static int callerPriority() {
+        Integer p = callerPriority.get();
+        return p != null ? p : INTERACTIVE;
+    }
+
+    /** Queues {@code task} for {@code host} at the calling thread's priority. */
+    static void submit(String host, Runnable task) {
+        int priority = callerPriority();
+        Task t = new Task(host != null ? host : "", priority, task);
+        synchronized (LOCK) {
+            queues[priority].add(t);
+            submitted[priority]++;
+            if (threads < THREADS && threads - running < queued()) startThread();
+            LOCK.notify();
+        }
+    }
+
+    public static Stats stats() {
+        synchronized (LOCK) {
+            return new Stats();
+        }
+    }
+
+    private static void startThread() {
+        threads++;
+        Thread t = new Thread(MediaScheduler::work, "tv-legacy-media-io-" + threads);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static void work() {
+        while (true) {
+            Task t;
+            synchronized (LOCK) {
+                while ((t = next()) == null) {
+                    try {
+                        LOCK.wait();
+                    } catch (InterruptedException e) {
+                        threads--;
+                        return;
+                    }
+                }
+                long waited = System.nanoTime() - t.queuedAt;
+                waitSumNanos[t.priority] += waited;
+                waitMaxNanos[t.priority] = Math.max(waitMaxNanos[t.priority], waited);
+                long ms = waited / 1000000L;
+                int b = 0;
+                while (b < WAIT_BOUNDS_MS.length && ms > WAIT_BOUNDS_MS[b]) b++;
+                waitBuckets[t.priority][b]++;
+                running++;
+                Integer active = activeByHost.get(t.host);
+                activeByHost.put(t.host, active != null ? active + 1 : 1);
+            }
+            try {
+                t.task.run();
+            } catch (RuntimeException ignored) {
+                // Backends report their own failures through the callback; keep the thread.
+            } finally {
+                synchronized (LOCK) {
+                    running--;
+                    int active = activeByHost.get(t.host) - 1;
+                    if (active > 0) activeByHost.put(t.host, active);
+                    else activeByHost.remove(t.host);
+                    LOCK.notifyAll(); // a host slot may have opened for a waiting task
+                }
+            }
+        }
+    }
+
+    /** Oldest task of the most urgent priority whose host has a free slot. Guarded by LOCK. */
+    private static Task next() {
+        for (ArrayDeque<Task> q : queues) {
+            for (Iterator<Task> it = q.iterator(); it.hasNext(); ) {
+                Task t = it.next();
+                Integer active = activeByHost.get(t.host);
+                if (active != null && active >= MAX_PER_HOST) continue;
+                it.remove();
+                return t;
+            }
+        }
+        return null;
+    }
+
+    private static int queued() {
+        int n = 0;
+        for (ArrayDeque<Task> q : queues) n += q.size();
+        return n;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ArrayDeque<Task>[] newQueues() {
+        ArrayDeque<Task>[] q = new ArrayDeque[NAMES.length];
+        for (int i = 0; i < q.length; i++) q[i] = new ArrayDeque<>();
+        return q;
+    }
+
+    private static final class Task {
+        final String host;
+        final int priority;
+        final Runnable task;
+        final long queuedAt = System.nanoTime();
+
+        Task(String host, int priority, Runnable task) {
+            this.host = host;
+            this.priority = priority;
+            this.task = task;
+        }
+    }
+
+    /** Counters since start, per priority (indexed like {@link #NAMES}). */
+    public static final class Stats {
+        public final int threads;
+        public final int running;
+        public final int[] queued = new int[NAMES.length];
+        public final long[] submitted = MediaScheduler.submitted.clone();
+        public final long[] waitSumNanos = MediaScheduler.waitSumNanos.clone();
+        public final long[] waitMaxNanos = MediaScheduler.waitMaxNanos.clone();
+        /** Per-bucket counts (not cumulative), bounds in {@link #WAIT_BOUNDS_MS}. */
+        public final long[][] waitBuckets = new long[NAMES.length][];
+
+        private Stats() {
+            threads = MediaScheduler.threads;
+            running = MediaScheduler.running;
+            for (int i = 0; i < NAMES.length; i++) {
+                queued[i] = queues[i].size();
+                waitBuckets[i] = MediaScheduler.waitBuckets[i].clone();
+            }
+        }
+
+        /** Upper bound in ms of the bucket holding quantile {@code q}, or -1 (none or overflow). */
+        public long waitQuantileMs(int priority, double q) {
+            long[] counts = waitBuckets[priority];
+            long total = 0;
+            for (long c : counts) total += c;
+            if (total == 0) return -1;
+            long rank = (long) Math.ceil(q * total);
+            long seen = 0;
+            for (int i = 0; i < WAIT_BOUNDS_MS.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return WAIT_BOUNDS_MS[i];
+            }
+            return -1;
+        }
+    }
+}
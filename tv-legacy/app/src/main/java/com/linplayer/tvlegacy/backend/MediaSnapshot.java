@@ -0,0 +1,277 @@
+package com.linplayer.tvlegacy.backend;
+
+import com.linplayer.tvlegacy.Episode;
+import com.linplayer.tvlegacy.Show;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Last known shows and episode lists of one server, kept on disk so screens can draw them before
+ * the server answers and then refresh in the background. The backend writes every successful
+ * listing here; readers get null when nothing was saved yet.
+ *
+ * <p>Files are plain {@link DataOutputStream} records (magic, kind, count, fields), replaced
+ * atomically; an unreadable file is deleted and reads as missing.
+ */
+public final class MediaSnapshot {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAGIC = 0x4c505331; // "LPS1"
+    private static final int SHOWS = 1;
+    private static final int EPISODES = 2;
+    private static final int MAX_EPISODE_FILES = 200;
+    private static final int MAX_ITEMS = 1 << 20;
+    private static final int MAX_STRING_BYTES = 1 << 20;
+
+    private final File dir;
+
+    /** {@code dir} is the server's own directory; null keeps nothing (the demo backend). */
+    MediaSnapshot(File dir) {
+        this.dir = dir;
+    }
+
+    /** Saved shows, or null; {@code cb} runs on the main thread. */
+    public void shows(Callback<List<Show>> cb) {
+        read(() -> readShows(file("shows")), cb);
+    }
+
+    /** Saved episodes of {@code showId}, or null; {@code cb} runs on the main thread. */
+    public void episodes(String showId, Callback<List<Episode>> cb) {
+        String id = showId != null ? showId.trim() : "";
+        read(() -> id.isEmpty() ? null : readEpisodes(file(episodesName(id)), id), cb);
+    }
+
+    /** True when both lists would draw the same (null and empty count as different). */
+    public static boolean sameShows(List<Show> a, List<Show> b) {
+        if (a == null || b == null || a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (!sameShow(a.get(i), b.get(i))) return false;
+        }
+        return true;
+    }
+
+    /** True when both lists would draw the same (null and empty count as different). */
+    public static boolean sameEpisodes(List<Episode> a, List<Episode> b) {
+        if (a == null || b == null || a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (!sameEpisode(a.get(i), b.get(i))) return false;
+        }
+        return true;
+    }
+
+    public static boolean sameShow(Show x, Show y) {
+        if (x == y) return true;
+        if (x == null || y == null) return false;
+        return Arrays.equals(showFields(x), showFields(y));
+    }
+
+    public static boolean sameEpisode(Episode x, Episode y) {
+        if (x == y) return true;
+        if (x == null || y == null) return false;
+        return x.index == y.index
+                && x.seasonNumber == y.seasonNumber
+                && x.episodeNumber == y.episodeNumber
+                && Arrays.equals(episodeFields(x), episodeFields(y));
+    }
+
+    void saveShows(List<Show> shows) {
+        if (dir == null || shows == null) return;
+        write(
+                file("shows"),
+                out -> {
+                    out.writeInt(SHOWS);
+                    out.writeInt(shows.size());
+                    for (Show s : shows) {
+                        for (String f : showFields(s)) writeString(out, f);
+                    }
+                });
+    }
+
+    void saveEpisodes(String showId, List<Episode> episodes) {
+        if (dir == null || showId == null || episodes == null) return;
+        write(
+                file(episodesName(showId)),
+                out -> {
+                    out.writeInt(EPISODES);
+                    writeString(out, showId);
+                    out.writeInt(episodes.size());
+                    for (Episode e : episodes) {
+                        out.writeInt(e.index);
+                        out.writeInt(e.seasonNumber);
+                        out.writeInt(e.episodeNumber);
+                        for (String f : episodeFields(e)) writeString(out, f);
+                    }
+                });
+        pruneEpisodes();
+    }
+
+    private interface Reader<T> {
+        T read() throws IOException;
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private <T> void read(Reader<T> reader, Callback<T> cb) {
+        if (dir == null) {
+            AppExecutors.main(() -> cb.onSuccess(null));
+            return;
+        }
+        // Local disk: the null host keeps it clear of the per-server limit.
+        AppExecutors.io(
+                null,
+                () -> {
+                    T v;
+                    try {
+                        v = reader.read();
+                    } catch (IOException e) {
+                        v = null;
+                    }
+                    T value = v;
+                    AppExecutors.main(() -> cb.onSuccess(value));
+                });
+    }
+
+    private synchronized void write(File f, Writer writer) {
+        if (!dir.isDirectory() && !dir.mkdirs()) return;
+        File tmp = new File(f.getPath() + ".tmp");
+        try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            writer.write(out);
+        } catch (IOException e) {
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(f)) tmp.delete();
+    }
+
+    private static List<Show> readShows(File f) throws IOException {
+        if (!f.isFile()) return null;
+        try (DataInputStream in = open(f, SHOWS)) {
+            int n = readCount(in);
+            List<Show> out = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                out.add(
+                        new Show(
+                                readString(in),
+                                readString(in),
+                                readString(in),
+                                readString(in),
+                                readString(in),
+                                readString(in),
+                                readString(in),
+                                readString(in)));
+            }
+            return Collections.unmodifiableList(out);
+        } catch (IOException e) {
+            f.delete();
+            throw e;
+        }
+    }
+
+    private static List<Episode> readEpisodes(File f, String showId) throws IOException {
+        if (!f.isFile()) return null;
+        try (DataInputStream in = open(f, EPISODES)) {
+            if (!showId.equals(readString(in))) return null; // another show with the same hash
+            int n = readCount(in);
+            List<Episode> out = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                int index = in.readInt();
+                int season = in.readInt();
+                int episode = in.readInt();
+                String id = readString(in);
+                String title = readString(in);
+                String mediaUrl = readString(in);
+                String overview = readString(in);
+                String thumbUrl = readString(in);
+                out.add(
+                        new Episode(
+                                id, index, title, mediaUrl, season, episode, overview, thumbUrl));
+            }
+            return Collections.unmodifiableList(out);
+        } catch (IOException e) {
+            f.delete();
+            throw e;
+        }
+    }
+
+    private static DataInputStream open(File f, int kind) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        if (in.readInt() != MAGIC || in.readInt() != kind) {
+            in.close();
+            throw new IOException("bad snapshot " + f.getName());
+        }
+        return in;
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n < 0 || n > MAX_ITEMS) throw new IOException("bad snapshot count " + n);
+        return n;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        // Not writeUTF: it stops at 64 KB, and some overviews are long.
+        byte[] b = (s != null ? s : "").getBytes(UTF8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n < 0 || n > MAX_STRING_BYTES) throw new IOException("bad snapshot string " + n);
+        byte[] b = new byte[n];
+        in.readFully(b);
+        return new String(b, UTF8);
+    }
+
+    private static String[] showFields(Show s) {
+        return new String[] {
+            s.id, s.title, s.overview, s.posterUrl, s.backdropUrl, s.year, s.genres, s.rating
+        };
+    }
+
+    private static String[] episodeFields(Episode e) {
+        return new String[] {e.id, e.title, e.mediaUrl, e.overview, e.thumbUrl};
+    }
+
+    private File file(String name) {
+        return new File(dir, name + ".bin");
+    }
+
+    private static String episodesName(String showId) {
+        // Ids are server ids or, for WebDAV, whole URLs: hash them into a file name. The file
+        // repeats the id, so a collision reads as missing.
+        return "episodes-" + Integer.toHexString(showId.hashCode());
+    }
+
+    /** Keeps the newest {@link #MAX_EPISODE_FILES} episode lists. */
+    private void pruneEpisodes() {
+        File[] files = dir.listFiles((d, name) -> name.startsWith("episodes-"));
+        if (files == null || files.length <= MAX_EPISODE_FILES) return;
+        Arrays.sort(
+                files,
+                new Comparator<File>() {
+                    @Override
+                    public int compare(File a, File b) {
+                        long x = a.lastModified();
+                        long y = b.lastModified();
+                        return x < y ? 1 : (x > y ? -1 : 0);
+                    }
+                });
+        for (int i = MAX_EPISODE_FILES; i < files.length; i++) files[i].delete();
+    }
+}
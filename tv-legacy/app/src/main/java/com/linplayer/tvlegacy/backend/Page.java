@@ -0,0 +1,31 @@
+package com.linplayer.tvlegacy.backend;
+
+import java.util.Collections;
+import java.util.List;
+
+/** One slice of a listing: {@code items} starting at {@code start} of {@code total}. */
+public final class Page<T> {
+    public final List<T> items;
+    public final int start;
+    /** Size of the whole listing, or -1 when the server does not say. */
+    public final int total;
+
+    public Page(List<T> items, int start, int total) {
+        this.items = items != null ? items : Collections.<T>emptyList();
+        this.start = start;
+        this.total = total;
+    }
+
+    /** False once this page reaches the end of the listing. */
+    public boolean hasMore() {
+        if (items.isEmpty()) return false;
+        return total < 0 || start + items.size() < total;
+    }
+
+    /** Items {@code start}.. (at most {@code limit}) of a listing held in full. */
+    static <T> Page<T> slice(List<T> all, int start, int limit) {
+        int from = Math.max(0, Math.min(start, all.size()));
+        int to = Math.min(all.size(), from + Math.max(0, limit));
+        return new Page<>(Collections.unmodifiableList(all.subList(from, to)), from, all.size());
+    }
+}
@@ -5,7 +5,6 @@ import com.linplayer.tvlegacy.Episode;
 import com.linplayer.tvlegacy.NetworkClients;
 import com.linplayer.tvlegacy.Show;
 import java.io.IOException;
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -16,13 +15,14 @@ import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
 import org.xmlpull.v1.XmlPullParser;
-import org.xmlpull.v1.XmlPullParserFactory;
 
 final class PlexMediaBackend implements MediaBackend {
     private final Context appContext;
     private final String token;
     private final HttpUrl baseUrl;
     private final OkHttpClient client;
+    private final SingleFlight flights;
+    private final EpisodeCache episodes;
 
     private final Object sectionLock = new Object();
     private String tvSectionKey;
@@ -33,30 +33,38 @@ final class PlexMediaBackend implements MediaBackend {
         String raw = normalizeBaseUrl(baseUrl);
         this.baseUrl = raw.isEmpty() ? null : HttpUrl.parse(raw + "/");
         this.client = NetworkClients.okHttp(this.appContext);
+        this.flights = new SingleFlight(this.baseUrl);
+        this.episodes = new EpisodeCache(flights);
     }
 
     @Override
-    public void listShows(Callback<List<Show>> cb) {
+    public void listShows(int start, int limit, Callback<Page<Show>> cb) {
         if (!isConfigured()) {
             AppExecutors.main(() -> cb.onError(new IllegalStateException("Plex not configured")));
             return;
         }
-        AppExecutors.io(
+        flights.load(
+                "shows/" + start + "/" + limit,
                 () -> {
-                    try {
-                        String section = requireTvSectionKey();
-                        HttpUrl url =
-                                plexUrl("library/sections/" + section + "/all")
-                                        .addQueryParameter("type", "2")
-                                        .addQueryParameter("sort", "titleSort:asc")
-                                        .build();
-                        String xml = httpGet(url);
-                        List<Show> shows = parseShows(xml);
-                        AppExecutors.main(() -> cb.onSuccess(shows));
-                    } catch (Exception e) {
-                        AppExecutors.main(() -> cb.onError(e));
+                    String section = requireTvSectionKey();
+                    HttpUrl url =
+                            plexUrl("library/sections/" + section + "/all")
+                                    .addQueryParameter("type", "2")
+                                    .addQueryParameter("sort", "titleSort:asc")
+                                    .addQueryParameter(
+                                            "X-Plex-Container-Start", String.valueOf(start))
+                                    .addQueryParameter(
+                                            "X-Plex-Container-Size", String.valueOf(limit))
+                                    .build();
+                    int[] total = {-1};
+                    List<Show> shows = getXml(url, p -> parseShows(p, total));
+                    if (total[0] < 0 && shows.size() > limit) {
+                        return Page.slice(shows, start, limit); // server ignored the paging
                     }
-                });
+                    if (total[0] < 0 && shows.size() < limit) total[0] = start + shows.size();
+                    return new Page<>(shows, start, total[0]);
+                },
+                cb);
     }
 
     @Override
@@ -70,17 +78,13 @@ final class PlexMediaBackend implements MediaBackend {
             return;
         }
         String id = showId.trim();
-        AppExecutors.io(
+        flights.load(
+                "show/" + id,
                 () -> {
-                    try {
-                        HttpUrl url = plexUrl("library/metadata/" + id).build();
-                        String xml = httpGet(url);
-                        Show show = parseShow(xml);
-                        AppExecutors.main(() -> cb.onSuccess(show));
-                    } catch (Exception e) {
-                        AppExecutors.main(() -> cb.onError(e));
-                    }
-                });
+                    HttpUrl url = plexUrl("library/metadata/" + id).build();
+                    return getXml(url, this::parseShow);
+                },
+                cb);
     }
 
     @Override
@@ -94,15 +98,7 @@ final class PlexMediaBackend implements MediaBackend {
             return;
         }
         String id = showId.trim();
-        AppExecutors.io(
-                () -> {
-                    try {
-                        List<Episode> episodes = loadEpisodes(id);
-                        AppExecutors.main(() -> cb.onSuccess(episodes));
-                    } catch (Exception e) {
-                        AppExecutors.main(() -> cb.onError(e));
-                    }
-                });
+        episodes.list(id, () -> loadEpisodes(id), cb);
     }
 
     @Override
@@ -116,24 +112,12 @@ final class PlexMediaBackend implements MediaBackend {
             return;
         }
         String id = showId.trim();
-        int index = episodeIndex;
-        AppExecutors.io(
-                () -> {
-                    try {
-                        List<Episode> episodes = loadEpisodes(id);
-                        Episode found = null;
-                        for (Episode e : episodes) {
-                            if (e != null && e.index == index) {
-                                found = e;
-                                break;
-                            }
-                        }
-                        Episode v = found;
-                        AppExecutors.main(() -> cb.onSuccess(v));
-                    } catch (Exception e) {
-                        AppExecutors.main(() -> cb.onError(e));
-                    }
-                });
+        episodes.get(id, episodeIndex, () -> loadEpisodes(id), cb);
+    }
+
+    @Override
+    public void invalidate(String showId) {
+        episodes.invalidate(showId != null ? showId.trim() : null);
     }
 
     private boolean isConfigured() {
@@ -157,8 +141,7 @@ final class PlexMediaBackend implements MediaBackend {
             cached = tvSectionKey;
             if (cached != null && !cached.trim().isEmpty()) return cached;
             HttpUrl url = plexUrl("library/sections").build();
-            String xml = httpGet(url);
-            String key = parseTvSectionKey(xml);
+            String key = getXml(url, PlexMediaBackend::parseTvSectionKey);
             if (key == null || key.trim().isEmpty()) {
                 throw new IOException("Plex: cannot find TV show library section");
             }
@@ -169,8 +152,7 @@ final class PlexMediaBackend implements MediaBackend {
 
     private List<Episode> loadEpisodes(String showId) throws Exception {
         HttpUrl url = plexUrl("library/metadata/" + showId + "/allLeaves").build();
-        String xml = httpGet(url);
-        List<EpisodeItem> items = parseEpisodeItems(xml);
+        List<EpisodeItem> items = getXml(url, PlexMediaBackend::parseEpisodeItems);
         Collections.sort(
                 items,
                 new Comparator<EpisodeItem>() {
@@ -220,7 +202,8 @@ final class PlexMediaBackend implements MediaBackend {
         return u.toString();
     }
 
-    private String httpGet(HttpUrl url) throws IOException {
+    /** GETs {@code url} and parses the XML as it arrives. */
+    private <T> T getXml(HttpUrl url, XmlBody<T> parser) throws Exception {
         Request req =
                 new Request.Builder()
                         .url(url)
@@ -232,19 +215,22 @@ final class PlexMediaBackend implements MediaBackend {
                 throw new IOException("Plex: HTTP " + resp.code() + " " + resp.message());
             }
             ResponseBody body = resp.body();
-            return body != null ? body.string() : "";
+            if (body == null) throw new IOException("Plex: empty response");
+            return parser.parse(Xml.parser(body));
         }
     }
 
-    private List<Show> parseShows(String xml) throws Exception {
+    /** Shows of a section listing; {@code total[0]} gets the container's totalSize, if any. */
+    private List<Show> parseShows(XmlPullParser p, int[] total) throws Exception {
         List<Show> out = new ArrayList<>();
-        XmlPullParser p = newParser(xml);
         int e = p.getEventType();
         ShowItem cur = null;
         while (e != XmlPullParser.END_DOCUMENT) {
             if (e == XmlPullParser.START_TAG) {
                 String name = p.getName();
-                if ("Directory".equals(name)) {
+                if ("MediaContainer".equals(name)) {
+                    total[0] = parseInt(attr(p, "totalSize"), -1);
+                } else if ("Directory".equals(name)) {
                     String id = attr(p, "ratingKey");
                     if (!id.isEmpty()) {
                         cur = new ShowItem();
@@ -291,8 +277,7 @@ final class PlexMediaBackend implements MediaBackend {
         return Collections.unmodifiableList(out);
     }
 
-    private Show parseShow(String xml) throws Exception {
-        XmlPullParser p = newParser(xml);
+    private Show parseShow(XmlPullParser p) throws Exception {
         int e = p.getEventType();
         ShowItem cur = null;
         while (e != XmlPullParser.END_DOCUMENT) {
@@ -341,8 +326,7 @@ final class PlexMediaBackend implements MediaBackend {
         return null;
     }
 
-    private static String parseTvSectionKey(String xml) throws Exception {
-        XmlPullParser p = newParser(xml);
+    private static String parseTvSectionKey(XmlPullParser p) throws Exception {
         int e = p.getEventType();
         while (e != XmlPullParser.END_DOCUMENT) {
             if (e == XmlPullParser.START_TAG && "Directory".equals(p.getName())) {
@@ -357,9 +341,8 @@ final class PlexMediaBackend implements MediaBackend {
         return "";
     }
 
-    private static List<EpisodeItem> parseEpisodeItems(String xml) throws Exception {
+    private static List<EpisodeItem> parseEpisodeItems(XmlPullParser p) throws Exception {
         List<EpisodeItem> out = new ArrayList<>();
-        XmlPullParser p = newParser(xml);
         int e = p.getEventType();
         EpisodeItem cur = null;
         while (e != XmlPullParser.END_DOCUMENT) {
@@ -400,14 +383,6 @@ final class PlexMediaBackend implements MediaBackend {
         return out;
     }
 
-    private static XmlPullParser newParser(String xml) throws Exception {
-        XmlPullParserFactory f = XmlPullParserFactory.newInstance();
-        f.setNamespaceAware(true);
-        XmlPullParser p = f.newPullParser();
-        p.setInput(new StringReader(xml != null ? xml : ""));
-        return p;
-    }
-
     private static String attr(XmlPullParser p, String name) {
         if (p == null) return "";
         String v = p.getAttributeValue(null, name);
@@ -464,4 +439,8 @@ final class PlexMediaBackend implements MediaBackend {
         }
         return sb.toString();
     }
+
+    private interface XmlBody<T> {
+        T parse(XmlPullParser p) throws Exception;
+    }
 }
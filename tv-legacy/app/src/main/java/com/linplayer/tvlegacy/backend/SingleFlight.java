@@ -0,0 +1,91 @@
+package com.linplayer.tvlegacy.backend;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import okhttp3.HttpUrl;
+
+/**
+ * Coalesces identical backend calls. While a load for a key runs, further calls with that key join
+ * it and get its result instead of fetching again; nothing is kept once it completes. Keys name the
+ * operation and its arguments; each backend instance has its own flights.
+ */
+final class SingleFlight {
+    interface Loader<T> {
+        /** Runs on an I/O thread. */
+        T load() throws Exception;
+    }
+
+    private final HttpUrl server;
+    // Guarded by itself.
+    private final HashMap<String, Flight<?>> flights = new HashMap<>();
+
+    SingleFlight(HttpUrl server) {
+        this.server = server;
+    }
+
+    /** Loads {@code key} once for all concurrent callers; {@code cb} runs on the main thread. */
+    @SuppressWarnings("unchecked")
+    <T> void load(String key, Loader<T> loader, Callback<T> cb) {
+        int priority = MediaScheduler.callerPriority();
+        Flight<T> f;
+        boolean submit;
+        synchronized (flights) {
+            f = (Flight<T>) flights.get(key);
+            if (f == null) {
+                f = new Flight<>(loader, priority);
+                flights.put(key, f);
+                submit = true;
+            } else {
+                // A screen waiting on a queued prefetch queues the same flight again, ahead of it;
+                // whichever copy runs first does the work.
+                submit = priority < f.priority;
+                if (submit) f.priority = priority;
+            }
+            f.callbacks.add(cb);
+        }
+        if (submit) {
+            Flight<T> flight = f;
+            AppExecutors.io(server, () -> run(key, flight));
+        }
+    }
+
+    private <T> void run(String key, Flight<T> f) {
+        if (!f.started.compareAndSet(false, true)) return;
+        T value = null;
+        Exception error = null;
+        try {
+            value = f.loader.load();
+        } catch (Exception e) {
+            error = e;
+        }
+        List<Callback<T>> callbacks;
+        synchronized (flights) {
+            flights.remove(key);
+            callbacks = f.callbacks;
+        }
+        T v = value;
+        Exception err = error;
+        AppExecutors.main(
+                () -> {
+                    for (Callback<T> cb : callbacks) {
+                        if (err != null) cb.onError(err);
+                        else cb.onSuccess(v);
+                    }
+                });
+    }
+
+    private static final class Flight<T> {
+        final Loader<T> loader;
+        final AtomicBoolean started = new AtomicBoolean();
+        // Guarded by the owning flights map.
+        final List<Callback<T>> callbacks = new ArrayList<>(2);
+        int priority;
+
+        Flight(Loader<T> loader, int priority) {
+            this.loader = loader;
+            this.priority = priority;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.linplayer.tvlegacy.backend;
+
+import com.linplayer.tvlegacy.Episode;
+import com.linplayer.tvlegacy.Show;
+import java.util.List;
+
+/**
+ * Passes calls to a server backend and saves the listings it returns to a {@link MediaSnapshot},
+ * writing in the background after the caller has its result.
+ */
+final class SnapshotMediaBackend implements MediaBackend {
+    private final MediaBackend server;
+    private final MediaSnapshot snapshot;
+    // Main thread only: the list saved last, so answers from the episode cache are not rewritten.
+    private List<Episode> savedEpisodes;
+
+    SnapshotMediaBackend(MediaBackend server, MediaSnapshot snapshot) {
+        this.server = server;
+        this.snapshot = snapshot;
+    }
+
+    @Override
+    public void listShows(int start, int limit, Callback<Page<Show>> cb) {
+        server.listShows(
+                start,
+                limit,
+                new Callback<Page<Show>>() {
+                    @Override
+                    public void onSuccess(Page<Show> page) {
+                        // The first page is what the home screen draws before the server answers.
+                        if (start == 0 && page != null) {
+                            List<Show> shows = page.items;
+                            save(() -> snapshot.saveShows(shows));
+                        }
+                        cb.onSuccess(page);
+                    }
+
+                    @Override
+                    public void onError(Throwable error) {
+                        cb.onError(error);
+                    }
+                });
+    }
+
+    @Override
+    public void getShow(String showId, Callback<Show> cb) {
+        server.getShow(showId, cb);
+    }
+
+    @Override
+    public void listEpisodes(String showId, Callback<List<Episode>> cb) {
+        server.listEpisodes(
+                showId,
+                new Callback<List<Episode>>() {
+                    @Override
+                    public void onSuccess(List<Episode> episodes) {
+                        if (showId != null && episodes != savedEpisodes) {
+                            savedEpisodes = episodes;
+                            String id = showId.trim();
+                            save(() -> snapshot.saveEpisodes(id, episodes));
+                        }
+                        cb.onSuccess(episodes);
+                    }
+
+                    @Override
+                    public void onError(Throwable error) {
+                        cb.onError(error);
+                    }
+                });
+    }
+
+    @Override
+    public void getEpisode(String showId, int episodeIndex, Callback<Episode> cb) {
+        server.getEpisode(showId, episodeIndex, cb);
+    }
+
+    @Override
+    public void invalidate(String showId) {
+        server.invalidate(showId);
+    }
+
+    private static void save(Runnable write) {
+        MediaScheduler.withPriority(MediaScheduler.BACKGROUND, () -> AppExecutors.io(null, write));
+    }
+}
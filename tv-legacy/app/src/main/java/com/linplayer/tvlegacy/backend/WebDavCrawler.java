@@ -0,0 +1,475 @@
+package com.linplayer.tvlegacy.backend;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.Call;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * Walks a WebDAV folder tree with {@code Depth: 1} PROPFINDs (many servers refuse {@code Depth:
+ * infinity}), at most {@link #PARALLEL} at a time. A subfolder whose parent was just listed and
+ * still reports the stamp {@link WebDavIndex} holds for it is taken from the index instead of
+ * fetched; every fetched listing goes into the index. The children of a folder taken from the index
+ * have no fresh stamp and are fetched, since on many servers a folder's stamp does not change when
+ * something deeper inside it does. A 429 or 503 pauses the walk for the server's Retry-After and
+ * drops it to one request at a time.
+ *
+ * <p>{@link #walk} serves a screen: it blocks its thread (one {@link MediaScheduler} slot of the
+ * server) while OkHttp runs the requests, so it never waits on tasks queued behind itself. {@link
+ * #crawl} serves the background: every folder is its own scheduler task, so interactive calls to
+ * the server get the next free slot and a Retry-After wait holds no thread.
+ */
+final class WebDavCrawler {
+    /** Requests one walk keeps open; matches the scheduler's per-server limit. */
+    static final int PARALLEL = 2;
+
+    private static final MediaType XML = MediaType.parse("text/xml; charset=utf-8");
+    private static final String PROPFIND =
+            "<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n"
+                    + "<d:propfind xmlns:d=\"DAV:\">\n"
+                    + "  <d:prop>\n"
+                    + "    <d:displayname />\n"
+                    + "    <d:resourcetype />\n"
+                    + "    <d:getetag />\n"
+                    + "    <d:getlastmodified />\n"
+                    + "  </d:prop>\n"
+                    + "</d:propfind>\n";
+    private static final int MAX_THROTTLED = 3;
+    // A crawl task finding the crawl at its request limit tries again this much later.
+    private static final long BUSY_RETRY_MS = 200;
+    private static final long DEFAULT_RETRY_MS = 2000;
+    private static final long MAX_RETRY_MS = 30000;
+
+    private final OkHttpClient client;
+    private final WebDavIndex index;
+
+    WebDavCrawler(OkHttpClient client, WebDavIndex index) {
+        this.client = client;
+        this.index = index;
+    }
+
+    /** Gets the end of a {@link #crawl} on an I/O thread. */
+    interface Done {
+        /** {@code ok} is false when the server kept refusing and the crawl gave up. */
+        void onDone(Tree tree, boolean ok);
+    }
+
+    /**
+     * Listings of {@code folder} and of its subfolders down to {@code depth} levels below it, in
+     * walk order. {@code folder} itself is always fetched. Stops adding folders at {@code
+     * maxFolders} and then reports the tree as incomplete.
+     */
+    Tree walk(HttpUrl folder, int depth, int maxFolders) throws IOException {
+        Tree tree = new Tree();
+        HashSet<String> seen = new HashSet<>();
+        ArrayDeque<Pending> queue = new ArrayDeque<>();
+        LinkedBlockingQueue<Result> done = new LinkedBlockingQueue<>();
+        List<Call> calls = new ArrayList<>();
+        seen.add(key(folder));
+        queue.add(new Pending(folder, "", depth));
+        int inFlight = 0;
+        int parallel = PARALLEL;
+        int throttled = 0;
+        try {
+            while (!queue.isEmpty() || inFlight > 0) {
+                while (inFlight < parallel && !queue.isEmpty()) {
+                    Pending p = queue.poll();
+                    WebDavIndex.Listing known = index.get(key(p.url));
+                    if (reusable(p, known)) {
+                        queue.addAll(children(tree, seen, p, known, false, maxFolders));
+                        continue;
+                    }
+                    calls.add(fetch(p, done));
+                    inFlight++;
+                }
+                if (inFlight == 0) continue;
+                Result r = done.take();
+                inFlight--;
+                calls.remove(r.call);
+                if (r.retryMs >= 0) {
+                    if (++throttled > MAX_THROTTLED) throw new IOException("WebDAV: server busy");
+                    parallel = 1;
+                    queue.addFirst(r.pending);
+                    Thread.sleep(r.retryMs);
+                    continue;
+                }
+                if (r.error != null) throw r.error;
+                index.put(key(r.pending.url), r.listing);
+                queue.addAll(children(tree, seen, r.pending, r.listing, true, maxFolders));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("WebDAV walk interrupted");
+        } finally {
+            for (Call c : calls) c.cancel();
+        }
+        return tree;
+    }
+
+    /**
+     * Same walk as {@link #walk} in the background: one scheduler task per folder at the caller's
+     * priority, {@code done} once every folder was listed or given up.
+     */
+    void crawl(HttpUrl folder, int depth, int maxFolders, Done done) {
+        new Crawl(folder, maxFolders, MediaScheduler.callerPriority(), done)
+                .start(new Pending(folder, "", depth));
+    }
+
+    /** Index key of a folder: its URL without the trailing slash. */
+    static String key(HttpUrl folder) {
+        return WebDavMediaBackend.normalizeUrl(folder.toString());
+    }
+
+    private static boolean reusable(Pending p, WebDavIndex.Listing known) {
+        return known != null && !p.stamp.isEmpty() && p.stamp.equals(known.stamp);
+    }
+
+    /**
+     * Records {@code listing} for {@code p} and returns the subfolders to visit next; they carry
+     * their stamps only when {@code fresh} (the listing was just fetched).
+     */
+    private static List<Pending> children(
+            Tree tree,
+            HashSet<String> seen,
+            Pending p,
+            WebDavIndex.Listing listing,
+            boolean fresh,
+            int maxFolders) {
+        String parent = key(p.url);
+        tree.folders.put(parent, listing);
+        if (p.depth <= 0) return Collections.emptyList();
+        List<Pending> out = new ArrayList<>();
+        for (WebDavIndex.Entry e : listing.entries) {
+            if (!e.isFolder) continue;
+            HttpUrl child = HttpUrl.parse(e.href.endsWith("/") ? e.href : e.href + "/");
+            if (child == null) continue;
+            String key = key(child);
+            // Only real children: a server pointing back up would otherwise loop.
+            if (!key.startsWith(parent + "/") || !seen.add(key)) continue;
+            if (seen.size() > maxFolders) {
+                tree.complete = false;
+                break;
+            }
+            out.add(new Pending(child, fresh ? e.stamp : "", p.depth - 1));
+        }
+        return out;
+    }
+
+    private static Request propfind(HttpUrl url) {
+        return new Request.Builder()
+                .url(url)
+                .method("PROPFIND", RequestBody.create(XML, PROPFIND))
+                .header("Depth", "1")
+                .header("Accept", "application/xml")
+                .build();
+    }
+
+    private Call fetch(Pending p, LinkedBlockingQueue<Result> done) {
+        Call call = client.newCall(propfind(p.url));
+        call.enqueue(
+                new okhttp3.Callback() {
+                    @Override
+                    public void onFailure(Call c, IOException e) {
+                        done.add(new Result(p, c, null, e, -1));
+                    }
+
+                    @Override
+                    public void onResponse(Call c, Response resp) {
+                        done.add(read(p, c, resp));
+                    }
+                });
+        return call;
+    }
+
+    /** Fetches {@code p} on the calling thread. */
+    private Result execute(Pending p) {
+        Call call = client.newCall(propfind(p.url));
+        try {
+            return read(p, call, call.execute());
+        } catch (IOException e) {
+            return new Result(p, call, null, e, -1);
+        }
+    }
+
+    private static Result read(Pending p, Call c, Response resp) {
+        try (Response r = resp) {
+            int code = r.code();
+            if (code == 429 || code == 503) {
+                return new Result(p, c, null, null, retryAfterMs(r.header("Retry-After")));
+            }
+            if (!r.isSuccessful()) {
+                IOException e = new IOException("WebDAV: HTTP " + code + " " + r.message());
+                return new Result(p, c, null, e, -1);
+            }
+            return new Result(p, c, parse(p.url, r.body()), null, -1);
+        } catch (Exception e) {
+            IOException io =
+                    e instanceof IOException
+                            ? (IOException) e
+                            : new IOException("WebDAV: bad PROPFIND response", e);
+            return new Result(p, c, null, io, -1);
+        }
+    }
+
+    private static long retryAfterMs(String header) {
+        String v = header != null ? header.trim() : "";
+        try {
+            long s = Long.parseLong(v);
+            return Math.max(0, Math.min(MAX_RETRY_MS, s * 1000L));
+        } catch (NumberFormatException e) {
+            return DEFAULT_RETRY_MS; // absent, or an HTTP date: not worth parsing
+        }
+    }
+
+    private static WebDavIndex.Listing parse(HttpUrl url, ResponseBody rb) throws Exception {
+        List<WebDavIndex.Entry> entries = new ArrayList<>();
+        String stamp = "";
+        if (rb == null) return new WebDavIndex.Listing(stamp, entries);
+        String self = key(url);
+        XmlPullParser p = Xml.parser(rb);
+        int e = p.getEventType();
+        String href = null;
+        String name = "";
+        String etag = "";
+        String modified = "";
+        boolean inResponse = false;
+        boolean inResourceType = false;
+        boolean isCollection = false;
+        while (e != XmlPullParser.END_DOCUMENT) {
+            if (e == XmlPullParser.START_TAG) {
+                String tag = p.getName();
+                if ("response".equalsIgnoreCase(tag)) {
+                    inResponse = true;
+                    href = null;
+                    name = "";
+                    etag = "";
+                    modified = "";
+                    isCollection = false;
+                } else if (inResponse) {
+                    if ("href".equalsIgnoreCase(tag)) {
+                        href = safe(p.nextText());
+                    } else if ("displayname".equalsIgnoreCase(tag)) {
+                        name = safe(p.nextText());
+                    } else if ("getetag".equalsIgnoreCase(tag)) {
+                        etag = safe(p.nextText());
+                    } else if ("getlastmodified".equalsIgnoreCase(tag)) {
+                        modified = safe(p.nextText());
+                    } else if ("resourcetype".equalsIgnoreCase(tag)) {
+                        inResourceType = true;
+                    } else if (inResourceType && "collection".equalsIgnoreCase(tag)) {
+                        isCollection = true;
+                    }
+                }
+            } else if (e == XmlPullParser.END_TAG) {
+                String tag = p.getName();
+                if ("resourcetype".equalsIgnoreCase(tag)) {
+                    inResourceType = false;
+                } else if ("response".equalsIgnoreCase(tag)) {
+                    inResponse = false;
+                    if (href != null && !href.isEmpty()) {
+                        // Normalize href to absolute URL for later navigation/playback.
+                        String abs = resolveHref(url, href);
+                        String s = !etag.isEmpty() ? etag : modified;
+                        if (self.equals(WebDavMediaBackend.normalizeUrl(abs))) {
+                            stamp = s;
+                        } else {
+                            if (name.isEmpty()) name = WebDavMediaBackend.lastSegment(abs);
+                            entries.add(new WebDavIndex.Entry(abs, name, isCollection, s));
+                        }
+                    }
+                }
+            }
+            e = p.next();
+        }
+        return new WebDavIndex.Listing(stamp, entries);
+    }
+
+    private static String resolveHref(HttpUrl requestUrl, String href) {
+        String h = safe(href);
+        if (h.isEmpty()) return "";
+        if (h.startsWith("http://") || h.startsWith("https://")) {
+            return WebDavMediaBackend.normalizeUrl(h);
+        }
+        if (requestUrl == null) return h;
+
+        int q = h.indexOf('?');
+        String path = q >= 0 ? h.substring(0, q) : h;
+        String query = q >= 0 ? h.substring(q + 1) : "";
+        if (path.startsWith("/")) {
+            HttpUrl.Builder b = requestUrl.newBuilder();
+            b.encodedPath(path);
+            if (!query.isEmpty()) b.encodedQuery(query);
+            return b.build().toString();
+        }
+        HttpUrl resolved = requestUrl.resolve(h);
+        return resolved != null ? resolved.toString() : h;
+    }
+
+    private static String safe(String s) {
+        return s != null ? s.trim() : "";
+    }
+
+    /** State of one {@link #crawl}; its tasks run on any I/O thread. */
+    private final class Crawl {
+        private final HttpUrl server;
+        private final int maxFolders;
+        private final int priority;
+        private final Done done;
+        // Guarded by this.
+        private final Tree tree = new Tree();
+        private final HashSet<String> seen = new HashSet<>();
+        private int throttled;
+        // Folders scheduled and not yet finished; the crawl ends when it drops to zero.
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicInteger active = new AtomicInteger();
+        private volatile long resumeAt;
+        private volatile boolean serial;
+        private volatile boolean gaveUp;
+
+        Crawl(HttpUrl server, int maxFolders, int priority, Done done) {
+            this.server = server;
+            this.maxFolders = maxFolders;
+            this.priority = priority;
+            this.done = done;
+        }
+
+        void start(Pending root) {
+            synchronized (this) {
+                seen.add(key(root.url));
+            }
+            pending.incrementAndGet();
+            schedule(root, 0);
+        }
+
+        private void schedule(Pending p, long delayMs) {
+            Runnable submit =
+                    () ->
+                            MediaScheduler.withPriority(
+                                    priority, () -> AppExecutors.io(server, () -> run(p)));
+            // Waits happen on the main looper's clock, not on an I/O thread.
+            if (delayMs > 0) AppExecutors.mainDelayed(submit, delayMs);
+            else submit.run();
+        }
+
+        private void run(Pending p) {
+            if (gaveUp) {
+                finish();
+                return;
+            }
+            long wait = resumeAt - nowMs();
+            if (wait > 0) {
+                schedule(p, wait);
+                return;
+            }
+            if (active.incrementAndGet() > (serial ? 1 : PARALLEL)) {
+                active.decrementAndGet();
+                schedule(p, BUSY_RETRY_MS);
+                return;
+            }
+            WebDavIndex.Listing known = index.get(key(p.url));
+            boolean fresh = !reusable(p, known);
+            Result r;
+            try {
+                r = fresh ? execute(p) : new Result(p, null, known, null, -1);
+            } finally {
+                active.decrementAndGet();
+            }
+            if (r.retryMs >= 0) {
+                boolean giveUp;
+                synchronized (this) {
+                    giveUp = ++throttled > MAX_THROTTLED;
+                }
+                if (giveUp) {
+                    gaveUp = true;
+                    finish();
+                    return;
+                }
+                serial = true;
+                resumeAt = nowMs() + r.retryMs;
+                schedule(p, r.retryMs);
+                return;
+            }
+            List<Pending> next;
+            synchronized (this) {
+                if (r.error != null) {
+                    // Keep the indexed copy; an incomplete crawl prunes nothing.
+                    tree.complete = false;
+                    next = Collections.emptyList();
+                } else {
+                    if (fresh) index.put(key(p.url), r.listing);
+                    next = children(tree, seen, p, r.listing, fresh, maxFolders);
+                }
+            }
+            pending.addAndGet(next.size());
+            for (Pending c : next) schedule(c, 0);
+            finish();
+        }
+
+        private void finish() {
+            if (pending.decrementAndGet() != 0) return;
+            synchronized (this) {
+                done.onDone(tree, !gaveUp);
+            }
+        }
+
+        private long nowMs() {
+            return System.nanoTime() / 1000000L;
+        }
+    }
+
+    /** Folder listings of one walk, keyed like {@link #key}. */
+    static final class Tree {
+        final LinkedHashMap<String, WebDavIndex.Listing> folders = new LinkedHashMap<>();
+        /** False when the walk stopped at its folder limit. */
+        boolean complete = true;
+    }
+
+    private static final class Pending {
+        final HttpUrl url;
+        /** Stamp the parent listing gave this folder; empty for the start folder. */
+        final String stamp;
+        final int depth;
+
+        Pending(HttpUrl url, String stamp, int depth) {
+            this.url = url;
+            this.stamp = stamp;
+            this.depth = depth;
+        }
+    }
+
+    private static final class Result {
+        final Pending pending;
+        final Call call;
+        final WebDavIndex.Listing listing;
+        final IOException error;
+        /** Wait before retrying when the server pushed back, else -1. */
+        final long retryMs;
+
+        Result(
+                Pending pending,
+                Call call,
+                WebDavIndex.Listing listing,
+                IOException error,
+                long retryMs) {
+            this.pending = pending;
+            this.call = call;
+            this.listing = listing;
+            this.error = error;
+            this.retryMs = retryMs;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.linplayer.tvlegacy.backend;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Folder listings of one WebDAV server, kept on disk between runs. Each listing carries the stamp
+ * (etag, else last-modified date) its folder had when it was fetched; {@link WebDavCrawler} reuses
+ * it while the parent folder still reports that stamp and fetches the folder again once it changes.
+ *
+ * <p>Keys are folder URLs without the trailing slash. The file is one {@link DataOutputStream}
+ * record, replaced atomically by {@link #save}; an unreadable file is deleted and reads as empty.
+ */
+final class WebDavIndex {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAGIC = 0x4c504449; // "LPDI"
+    private static final int MAX_FOLDERS = 1 << 16;
+    private static final int MAX_ENTRIES = 1 << 16;
+    private static final int MAX_STRING_BYTES = 1 << 16;
+
+    private final File file;
+    // Guarded by this; read from the file on first use.
+    private HashMap<String, Listing> folders;
+    private boolean dirty;
+
+    /** {@code file} null keeps the index in memory only. */
+    WebDavIndex(File file) {
+        this.file = file;
+    }
+
+    synchronized Listing get(String folderUrl) {
+        return folders().get(folderUrl);
+    }
+
+    synchronized void put(String folderUrl, Listing listing) {
+        folders().put(folderUrl, listing);
+        dirty = true;
+    }
+
+    /** Drops every folder not in {@code keep}, after a crawl that saw the whole tree. */
+    synchronized void retain(Collection<String> keep) {
+        if (folders().keySet().retainAll(keep)) dirty = true;
+    }
+
+    /** Writes the index when it changed since it was read or last saved. */
+    synchronized void save() {
+        if (!dirty || file == null) return;
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) return;
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(folders.size());
+            for (Map.Entry<String, Listing> f : folders.entrySet()) {
+                Listing l = f.getValue();
+                writeString(out, f.getKey());
+                writeString(out, l.stamp);
+                out.writeInt(l.entries.size());
+                for (Entry e : l.entries) {
+                    writeString(out, e.href);
+                    writeString(out, e.name);
+                    out.writeBoolean(e.isFolder);
+                    writeString(out, e.stamp);
+                }
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            return;
+        }
+        if (tmp.renameTo(file)) dirty = false;
+        else tmp.delete();
+    }
+
+    private HashMap<String, Listing> folders() {
+        if (folders == null) {
+            folders = new HashMap<>();
+            if (file != null && file.isFile()) {
+                try {
+                    read();
+                } catch (IOException e) {
+                    folders.clear();
+                    file.delete();
+                }
+            }
+        }
+        return folders;
+    }
+
+    private void read() throws IOException {
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) throw new IOException("bad index " + file.getName());
+            int n = readCount(in, MAX_FOLDERS);
+            for (int i = 0; i < n; i++) {
+                String url = readString(in);
+                String stamp = readString(in);
+                int m = readCount(in, MAX_ENTRIES);
+                List<Entry> entries = new ArrayList<>(m);
+                for (int j = 0; j < m; j++) {
+                    String href = readString(in);
+                    String name = readString(in);
+                    boolean isFolder = in.readBoolean();
+                    entries.add(new Entry(href, name, isFolder, readString(in)));
+                }
+                folders.put(url, new Listing(stamp, entries));
+            }
+        }
+    }
+
+    private static int readCount(DataInputStream in, int max) throws IOException {
+        int n = in.readInt();
+        if (n < 0 || n > max) throw new IOException("bad index count " + n);
+        return n;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = (s != null ? s : "").getBytes(UTF8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n < 0 || n > MAX_STRING_BYTES) throw new IOException("bad index string " + n);
+        byte[] b = new byte[n];
+        in.readFully(b);
+        return new String(b, UTF8);
+    }
+
+    /** One folder as its last PROPFIND saw it; the folder itself is not among the entries. */
+    static final class Listing {
+        final String stamp;
+        final List<Entry> entries;
+
+        Listing(String stamp, List<Entry> entries) {
+            this.stamp = stamp != null ? stamp : "";
+            this.entries = Collections.unmodifiableList(entries);
+        }
+    }
+
+    static final class Entry {
+        /** Absolute URL. */
+        final String href;
+        final String name;
+        final boolean isFolder;
+        /** Etag, else last-modified date, else empty (never reused). */
+        final String stamp;
+
+        Entry(String href, String name, boolean isFolder, String stamp) {
+            this.href = href != null ? href : "";
+            this.name = name != null ? name : "";
+            this.isFolder = isFolder;
+            this.stamp = stamp != null ? stamp : "";
+        }
+    }
+}
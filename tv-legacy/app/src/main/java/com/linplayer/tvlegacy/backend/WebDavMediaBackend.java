@@ -5,33 +5,45 @@ import android.net.Uri;
 import com.linplayer.tvlegacy.Episode;
 import com.linplayer.tvlegacy.NetworkClients;
 import com.linplayer.tvlegacy.Show;
+import java.io.File;
 import java.io.IOException;
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import okhttp3.Credentials;
 import okhttp3.HttpUrl;
 import okhttp3.Interceptor;
-import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
-import okhttp3.RequestBody;
 import okhttp3.Response;
-import okhttp3.ResponseBody;
-import org.xmlpull.v1.XmlPullParser;
-import org.xmlpull.v1.XmlPullParserFactory;
 
 final class WebDavMediaBackend implements MediaBackend {
-    private static final MediaType XML = MediaType.parse("text/xml; charset=utf-8");
+    // Show/Season/Extras: levels below a show folder that still hold its episodes.
+    private static final int EPISODE_DEPTH = 2;
+    private static final int CRAWL_DEPTH = 1 + EPISODE_DEPTH;
+    private static final int MAX_EPISODE_FOLDERS = 500;
+    private static final int MAX_CRAWL_FOLDERS = 5000;
+    private static final long CRAWL_INTERVAL_MS = 15 * 60 * 1000L;
 
     private final Context appContext;
     private final HttpUrl baseUrl;
     private final String authHeader;
     private final OkHttpClient client;
+    private final SingleFlight flights;
+    private final EpisodeCache episodes;
+    private final WebDavIndex index;
+    private final WebDavCrawler crawler;
+    private final AtomicBoolean crawling = new AtomicBoolean();
+    // Last listing of the root folder; later pages are cut from it.
+    private volatile List<Show> shows;
+    private volatile long crawledAt;
 
-    WebDavMediaBackend(Context context, String baseUrl, String username, String password) {
+    /** {@code indexFile} keeps the folder index between runs; null keeps it in memory. */
+    WebDavMediaBackend(
+            Context context, String baseUrl, String username, String password, File indexFile) {
         this.appContext = context.getApplicationContext();
         String raw = normalizeBaseUrl(baseUrl);
         HttpUrl parsed = raw.isEmpty() ? null : HttpUrl.parse(ensureSlash(raw));
@@ -55,33 +67,51 @@ final class WebDavMediaBackend implements MediaBackend {
                                     }
                                 })
                         .build();
+        this.flights = new SingleFlight(parsed);
+        this.episodes = new EpisodeCache(flights);
+        this.index = new WebDavIndex(indexFile);
+        this.crawler = new WebDavCrawler(client, index);
     }
 
     @Override
-    public void listShows(Callback<List<Show>> cb) {
+    public void listShows(int start, int limit, Callback<Page<Show>> cb) {
         if (!isConfigured()) {
             AppExecutors.main(() -> cb.onError(new IllegalStateException("WebDAV not configured")));
             return;
         }
-        AppExecutors.io(
+        // PROPFIND cannot page: list the folder for the first page, slice that for the rest.
+        List<Show> listed = shows;
+        if (start > 0 && listed != null) {
+            Page<Show> page = Page.slice(listed, start, limit);
+            AppExecutors.main(() -> cb.onSuccess(page));
+            return;
+        }
+        flights.load(
+                "shows",
                 () -> {
-                    try {
-                        List<DavEntry> entries = propfind(baseUrl, 1);
-                        List<Show> out = new ArrayList<>();
-                        String self = baseUrl.toString();
-                        for (DavEntry e : entries) {
-                            if (e == null || e.href == null) continue;
-                            if (!e.isCollection) continue;
-                            if (sameUrl(self, e.href)) continue;
-                            String title = e.displayName;
-                            if (title == null || title.trim().isEmpty()) {
-                                title = lastSegment(e.href);
-                            }
-                            out.add(new Show(e.href, title, ""));
-                        }
-                        AppExecutors.main(() -> cb.onSuccess(Collections.unmodifiableList(out)));
-                    } catch (Exception e) {
-                        AppExecutors.main(() -> cb.onError(e));
+                    WebDavCrawler.Tree tree = crawler.walk(baseUrl, 0, 1);
+                    index.save();
+                    List<Show> out = new ArrayList<>();
+                    WebDavIndex.Listing root = tree.folders.get(WebDavCrawler.key(baseUrl));
+                    for (WebDavIndex.Entry e : root.entries) {
+                        if (!e.isFolder) continue;
+                        String title = e.name.trim();
+                        if (title.isEmpty()) title = lastSegment(e.href);
+                        out.add(new Show(e.href, title, ""));
+                    }
+                    shows = Collections.unmodifiableList(out);
+                    return shows;
+                },
+                new Callback<List<Show>>() {
+                    @Override
+                    public void onSuccess(List<Show> all) {
+                        cb.onSuccess(Page.slice(all, start, limit));
+                        crawl();
+                    }
+
+                    @Override
+                    public void onError(Throwable error) {
+                        cb.onError(error);
                     }
                 });
     }
@@ -98,6 +128,7 @@ final class WebDavMediaBackend implements MediaBackend {
         }
         String id = showId.trim();
         AppExecutors.io(
+                baseUrl,
                 () -> {
                     try {
                         String title = lastSegment(id);
@@ -120,45 +151,7 @@ final class WebDavMediaBackend implements MediaBackend {
             return;
         }
         String id = showId.trim();
-        AppExecutors.io(
-                () -> {
-                    try {
-                        HttpUrl folder = HttpUrl.parse(ensureSlash(id));
-                        if (folder == null) throw new IOException("invalid WebDAV folder url");
-                        List<DavEntry> entries = propfind(folder, 1);
-                        List<DavEntry> files = new ArrayList<>();
-                        String self = folder.toString();
-                        for (DavEntry e : entries) {
-                            if (e == null || e.href == null) continue;
-                            if (sameUrl(self, e.href)) continue;
-                            if (e.isCollection) continue;
-                            if (!isVideoFile(e.href)) continue;
-                            files.add(e);
-                        }
-                        Collections.sort(
-                                files,
-                                new Comparator<DavEntry>() {
-                                    @Override
-                                    public int compare(DavEntry a, DavEntry b) {
-                                        String ta = a != null ? safe(a.displayName) : "";
-                                        String tb = b != null ? safe(b.displayName) : "";
-                                        return ta.compareToIgnoreCase(tb);
-                                    }
-                                });
-
-                        List<Episode> out = new ArrayList<>(files.size());
-                        int idx = 1;
-                        for (DavEntry e : files) {
-                            String title = safe(e.displayName);
-                            if (title.isEmpty()) title = lastSegment(e.href);
-                            out.add(new Episode(e.href, idx, title, e.href));
-                            idx++;
-                        }
-                        AppExecutors.main(() -> cb.onSuccess(Collections.unmodifiableList(out)));
-                    } catch (Exception e) {
-                        AppExecutors.main(() -> cb.onError(e));
-                    }
-                });
+        episodes.list(id, () -> loadEpisodes(id), cb);
     }
 
     @Override
@@ -172,182 +165,87 @@ final class WebDavMediaBackend implements MediaBackend {
             return;
         }
         String id = showId.trim();
-        int index = episodeIndex;
-        AppExecutors.io(
-                () -> {
-                    try {
-                        List<Episode> list = loadEpisodes(id);
-                        Episode found = null;
-                        for (Episode e : list) {
-                            if (e != null && e.index == index) {
-                                found = e;
-                                break;
-                            }
-                        }
-                        Episode v = found;
-                        AppExecutors.main(() -> cb.onSuccess(v));
-                    } catch (Exception e) {
-                        AppExecutors.main(() -> cb.onError(e));
-                    }
-                });
+        episodes.get(id, episodeIndex, () -> loadEpisodes(id), cb);
+    }
+
+    @Override
+    public void invalidate(String showId) {
+        episodes.invalidate(showId != null ? showId.trim() : null);
     }
 
     private List<Episode> loadEpisodes(String folderUrl) throws Exception {
         HttpUrl folder = HttpUrl.parse(ensureSlash(folderUrl));
-        if (folder == null) return Collections.emptyList();
-        List<DavEntry> entries = propfind(folder, 1);
-        List<DavEntry> files = new ArrayList<>();
-        String self = folder.toString();
-        for (DavEntry e : entries) {
-            if (e == null || e.href == null) continue;
-            if (sameUrl(self, e.href)) continue;
-            if (e.isCollection) continue;
-            if (!isVideoFile(e.href)) continue;
-            files.add(e);
+        if (folder == null) throw new IOException("invalid WebDAV folder url");
+        // Season folders the index already holds unchanged cost no request.
+        WebDavCrawler.Tree tree = crawler.walk(folder, EPISODE_DEPTH, MAX_EPISODE_FOLDERS);
+        index.save();
+        String root = WebDavCrawler.key(folder);
+        List<String[]> files = new ArrayList<>(); // sort key, title, href
+        for (Map.Entry<String, WebDavIndex.Listing> f : tree.folders.entrySet()) {
+            String sub = Uri.decode(f.getKey().substring(root.length()));
+            sub = sub.startsWith("/") ? sub.substring(1) : sub;
+            for (WebDavIndex.Entry e : f.getValue().entries) {
+                if (e.isFolder || !isVideoFile(e.href)) continue;
+                String title = e.name.trim();
+                if (title.isEmpty()) title = lastSegment(e.href);
+                String path = sub.isEmpty() ? title : sub + "/" + title;
+                files.add(new String[] {path, sub.isEmpty() ? title : sub + " / " + title, e.href});
+            }
         }
         Collections.sort(
                 files,
-                new Comparator<DavEntry>() {
+                new Comparator<String[]>() {
                     @Override
-                    public int compare(DavEntry a, DavEntry b) {
-                        String ta = a != null ? safe(a.displayName) : "";
-                        String tb = b != null ? safe(b.displayName) : "";
-                        return ta.compareToIgnoreCase(tb);
+                    public int compare(String[] a, String[] b) {
+                        return compareNatural(a[0], b[0]);
                     }
                 });
 
         List<Episode> out = new ArrayList<>(files.size());
         int idx = 1;
-        for (DavEntry e : files) {
-            String title = safe(e.displayName);
-            if (title.isEmpty()) title = lastSegment(e.href);
-            out.add(new Episode(e.href, idx, title, e.href));
+        for (String[] f : files) {
+            out.add(new Episode(f[2], idx, f[1], f[2]));
             idx++;
         }
         return Collections.unmodifiableList(out);
     }
 
-    private boolean isConfigured() {
-        return baseUrl != null && authHeader != null && !authHeader.trim().isEmpty();
-    }
-
-    private List<DavEntry> propfind(HttpUrl url, int depth) throws Exception {
-        String body =
-                "<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n"
-                        + "<d:propfind xmlns:d=\"DAV:\">\n"
-                        + "  <d:prop>\n"
-                        + "    <d:displayname />\n"
-                        + "    <d:resourcetype />\n"
-                        + "  </d:prop>\n"
-                        + "</d:propfind>\n";
-        Request req =
-                new Request.Builder()
-                        .url(url)
-                        .method("PROPFIND", RequestBody.create(XML, body))
-                        .header("Depth", String.valueOf(depth))
-                        .header("Accept", "application/xml")
-                        .build();
-        try (Response resp = client.newCall(req).execute()) {
-            if (!resp.isSuccessful()) {
-                throw new IOException("WebDAV: HTTP " + resp.code() + " " + resp.message());
-            }
-            ResponseBody rb = resp.body();
-            String xml = rb != null ? rb.string() : "";
-            List<DavEntry> parsed = parsePropfind(xml);
-            // Normalize href to absolute URL for later navigation/playback.
-            for (DavEntry d : parsed) {
-                if (d == null) continue;
-                d.href = resolveHref(url, d.href);
-            }
-            return parsed;
-        }
+    /**
+     * Walks the whole library into the index at background priority, at most once per {@link
+     * #CRAWL_INTERVAL_MS}, so opening a show only re-checks its own folder.
+     */
+    private void crawl() {
+        long last = crawledAt;
+        if (last != 0 && System.nanoTime() - last < CRAWL_INTERVAL_MS * 1000000L) return;
+        if (!crawling.compareAndSet(false, true)) return;
+        MediaScheduler.withPriority(
+                MediaScheduler.BACKGROUND,
+                () ->
+                        crawler.crawl(
+                                baseUrl,
+                                CRAWL_DEPTH,
+                                MAX_CRAWL_FOLDERS,
+                                (tree, ok) -> {
+                                    // Folders the crawl no longer reached were removed.
+                                    if (ok && tree.complete) index.retain(tree.folders.keySet());
+                                    // Given up on a busy server: the next listing tries again.
+                                    if (ok) crawledAt = System.nanoTime();
+                                    index.save();
+                                    crawling.set(false);
+                                }));
     }
 
-    private static String resolveHref(HttpUrl requestUrl, String href) {
-        String h = safe(href);
-        if (h.isEmpty()) return "";
-        if (h.startsWith("http://") || h.startsWith("https://")) return normalizeUrl(h);
-        if (requestUrl == null) return h;
-
-        int q = h.indexOf('?');
-        String path = q >= 0 ? h.substring(0, q) : h;
-        String query = q >= 0 ? h.substring(q + 1) : "";
-        if (path.startsWith("/")) {
-            HttpUrl.Builder b = requestUrl.newBuilder();
-            b.encodedPath(path);
-            if (!query.isEmpty()) b.encodedQuery(query);
-            return b.build().toString();
-        }
-        HttpUrl resolved = requestUrl.resolve(h);
-        return resolved != null ? resolved.toString() : h;
-    }
-
-    private static List<DavEntry> parsePropfind(String xml) throws Exception {
-        XmlPullParser p = newParser(xml);
-        int e = p.getEventType();
-        List<DavEntry> out = new ArrayList<>();
-        DavEntry cur = null;
-        boolean inResourceType = false;
-        while (e != XmlPullParser.END_DOCUMENT) {
-            if (e == XmlPullParser.START_TAG) {
-                String name = p.getName();
-                if ("response".equalsIgnoreCase(name)) {
-                    cur = new DavEntry();
-                } else if (cur != null) {
-                    if ("href".equalsIgnoreCase(name)) {
-                        cur.href = safe(p.nextText());
-                    } else if ("displayname".equalsIgnoreCase(name)) {
-                        cur.displayName = safe(p.nextText());
-                    } else if ("resourcetype".equalsIgnoreCase(name)) {
-                        inResourceType = true;
-                    } else if (inResourceType && "collection".equalsIgnoreCase(name)) {
-                        cur.isCollection = true;
-                    }
-                }
-            } else if (e == XmlPullParser.END_TAG) {
-                String name = p.getName();
-                if ("resourcetype".equalsIgnoreCase(name)) {
-                    inResourceType = false;
-                } else if ("response".equalsIgnoreCase(name)) {
-                    if (cur != null && cur.href != null && !cur.href.trim().isEmpty()) {
-                        out.add(cur);
-                    }
-                    cur = null;
-                }
-            }
-            e = p.next();
-        }
-        // Best effort: decode display name if empty.
-        for (DavEntry d : out) {
-            if (d == null) continue;
-            if (d.displayName == null || d.displayName.trim().isEmpty()) {
-                d.displayName = lastSegment(d.href);
-            }
-        }
-        return out;
-    }
-
-    private static XmlPullParser newParser(String xml) throws Exception {
-        XmlPullParserFactory f = XmlPullParserFactory.newInstance();
-        f.setNamespaceAware(true);
-        XmlPullParser p = f.newPullParser();
-        p.setInput(new StringReader(xml != null ? xml : ""));
-        return p;
-    }
-
-    private static boolean sameUrl(String a, String b) {
-        String aa = normalizeUrl(a);
-        String bb = normalizeUrl(b);
-        return !aa.isEmpty() && aa.equals(bb);
+    private boolean isConfigured() {
+        return baseUrl != null && authHeader != null && !authHeader.trim().isEmpty();
     }
 
-    private static String normalizeUrl(String u) {
+    static String normalizeUrl(String u) {
         String v = u != null ? u.trim() : "";
         while (v.endsWith("/")) v = v.substring(0, v.length() - 1);
         return v;
     }
 
-    private static String lastSegment(String url) {
+    static String lastSegment(String url) {
         String u = url != null ? url : "";
         String decoded = Uri.decode(u);
         String v = decoded != null ? decoded : u;
@@ -371,16 +269,46 @@ final class WebDavMediaBackend implements MediaBackend {
                 || name.endsWith(".m2ts");
     }
 
+    /** Case-insensitive, with digit runs compared as numbers: "Season 2" before "Season 10". */
+    static int compareNatural(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            char x = a.charAt(i);
+            char y = b.charAt(j);
+            if (isDigit(a, i) && isDigit(b, j)) {
+                int si = i;
+                int sj = j;
+                while (a.charAt(si) == '0' && si + 1 < a.length() && isDigit(a, si + 1)) si++;
+                while (b.charAt(sj) == '0' && sj + 1 < b.length() && isDigit(b, sj + 1)) sj++;
+                i = si;
+                j = sj;
+                while (i < a.length() && isDigit(a, i)) i++;
+                while (j < b.length() && isDigit(b, j)) j++;
+                int c = (i - si) - (j - sj);
+                if (c == 0) c = a.substring(si, i).compareTo(b.substring(sj, j));
+                if (c != 0) return c;
+                continue;
+            }
+            int c = Character.toLowerCase(x) - Character.toLowerCase(y);
+            if (c != 0) return c;
+            i++;
+            j++;
+        }
+        return (a.length() - i) - (b.length() - j);
+    }
+
+    private static boolean isDigit(String s, int i) {
+        char c = s.charAt(i);
+        return c >= '0' && c <= '9';
+    }
+
     private static String ensureSlash(String url) {
         String v = url != null ? url.trim() : "";
         if (v.isEmpty()) return "";
         return v.endsWith("/") ? v : (v + "/");
     }
 
-    private static String safe(String s) {
-        return s != null ? s.trim() : "";
-    }
-
     private static String normalizeBaseUrl(String baseUrl) {
         String v = baseUrl != null ? baseUrl.trim() : "";
         if (v.isEmpty()) return "";
@@ -388,10 +316,4 @@ final class WebDavMediaBackend implements MediaBackend {
         while (v.endsWith("/")) v = v.substring(0, v.length() - 1);
         return v;
     }
-
-    private static final class DavEntry {
-        String href;
-        String displayName;
-        boolean isCollection;
-    }
 }
@@ -0,0 +1,39 @@
+package com.linplayer.tvlegacy.backend;
+
+import java.nio.charset.Charset;
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+/**
+ * Pull parsers reading straight from a response body, so a large listing is never held as a
+ * string. Looking up the parser implementation is the costly part of making a factory; there is
+ * one, made on first use.
+ */
+final class Xml {
+    // Guarded by Xml.class.
+    private static XmlPullParserFactory factory;
+
+    private Xml() {}
+
+    /** A namespace-aware parser over {@code body}, decoding as its Content-Type says. */
+    static XmlPullParser parser(ResponseBody body) throws XmlPullParserException {
+        XmlPullParser p = newParser();
+        MediaType type = body.contentType();
+        Charset charset = type != null ? type.charset() : null;
+        // Without a charset the parser follows the XML declaration, else UTF-8.
+        p.setInput(body.byteStream(), charset != null ? charset.name() : null);
+        return p;
+    }
+
+    private static synchronized XmlPullParser newParser() throws XmlPullParserException {
+        if (factory == null) {
+            XmlPullParserFactory f = XmlPullParserFactory.newInstance();
+            f.setNamespaceAware(true);
+            factory = f;
+        }
+        return factory.newPullParser();
+    }
+}
@@ -0,0 +1,233 @@
+package com.linplayer.tvlegacy.remote;
+
+import android.util.Base64;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * WebSocket behind {@code /api/player/ws}. The token is checked once at the handshake; after that
+ * every text frame is one compact command and is answered with the resulting status plus
+ * {@code "ack"}, the 1-based number of the command on this socket (plus {@code "commandId"} for
+ * commands that went through the player queue):
+ *
+ * <pre>
+ * t          toggle play/pause
+ * p / a      play / pause
+ * x          stop
+ * b-10000    seek by milliseconds
+ * s90000     seek to milliseconds
+ * v50        volume 0..100
+ * ?          status only
+ * </pre>
+ *
+ * Commands draw from the client's HTTP budgets ({@code ?} as a read, the rest as control), so the
+ * socket is no way around the rate limit.
+ */
+final class ControlSocket implements NioHttpEngine.StreamHandler {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    // Commands are a few bytes; anything large is not ours.
+    private static final int MAX_PAYLOAD = 1024;
+
+    private static final int OP_CONTINUATION = 0x0;
+    private static final int OP_TEXT = 0x1;
+    private static final int OP_CLOSE = 0x8;
+    private static final int OP_PING = 0x9;
+    private static final int OP_PONG = 0xA;
+
+    private static final int CLOSE_NORMAL = 1000;
+    private static final int CLOSE_PROTOCOL_ERROR = 1002;
+    private static final int CLOSE_UNSUPPORTED = 1003;
+    private static final int CLOSE_TOO_BIG = 1009;
+
+    private final RateLimiter limiter;
+    private final InetAddress client;
+    private volatile NioHttpEngine.Stream stream;
+    // I/O thread only.
+    private int commands;
+    private boolean awaitingPong;
+
+    ControlSocket(RateLimiter limiter, InetAddress client) {
+        this.limiter = limiter;
+        this.client = client;
+    }
+
+    /** {@code Sec-WebSocket-Accept} for a client key, or null when the key is missing. */
+    static String acceptKey(String clientKey) {
+        if (clientKey == null || clientKey.trim().isEmpty()) return null;
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((clientKey.trim() + ACCEPT_GUID).getBytes(UTF8));
+            return Base64.encodeToString(digest, Base64.NO_WRAP);
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void onOpen(NioHttpEngine.Stream stream) {
+        this.stream = stream;
+    }
+
+    @Override
+    public void onData(NioHttpEngine.Stream stream, ByteBuffer in) {
+        awaitingPong = false;
+        while (in.remaining() >= 2) {
+            int start = in.position();
+            int b0 = in.get(start) & 0xff;
+            int b1 = in.get(start + 1) & 0xff;
+            boolean fin = (b0 & 0x80) != 0;
+            int op = b0 & 0x0f;
+            long len = b1 & 0x7f;
+            int head = 2;
+            if (len == 126) {
+                if (in.remaining() < 4) return;
+                len = in.getShort(start + 2) & 0xffff;
+                head = 4;
+            } else if (len == 127) {
+                if (in.remaining() < 10) return;
+                len = in.getLong(start + 2);
+                head = 10;
+            }
+            if ((b1 & 0x80) == 0) {
+                fail(in, CLOSE_PROTOCOL_ERROR); // client frames must be masked
+                return;
+            }
+            if (len < 0 || len > MAX_PAYLOAD) {
+                fail(in, CLOSE_TOO_BIG);
+                return;
+            }
+            if (in.remaining() < head + 4 + len) return;
+
+            int maskAt = start + head;
+            byte[] payload = new byte[(int) len];
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] = (byte) (in.get(maskAt + 4 + i) ^ in.get(maskAt + (i & 3)));
+            }
+            in.position(maskAt + 4 + payload.length);
+
+            if (op == OP_TEXT && fin) {
+                command(new String(payload, UTF8));
+            } else if (op == OP_PING) {
+                stream.send(frame(OP_PONG, payload));
+            } else if (op == OP_CLOSE) {
+                stream.send(closeFrame(CLOSE_NORMAL));
+                stream.close();
+                in.position(in.limit());
+                return;
+            } else if (op != OP_PONG) {
+                // Binary and fragmented messages are never produced by the remote UI.
+                boolean fragmented = op == OP_CONTINUATION || op == OP_TEXT;
+                fail(in, fragmented ? CLOSE_UNSUPPORTED : CLOSE_PROTOCOL_ERROR);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void onIdle(NioHttpEngine.Stream stream) {
+        if (awaitingPong) {
+            stream.close();
+            return;
+        }
+        awaitingPong = true;
+        stream.send(frame(OP_PING, new byte[0]));
+    }
+
+    @Override
+    public void onClosed(NioHttpEngine.Stream stream) {}
+
+    private void command(String text) {
+        final int ack = ++commands;
+        String t = text.trim();
+        String action = action(t.isEmpty() ? '?' : t.charAt(0));
+        if (action == null) {
+            reply(ack, HttpResponses.jsonError("unknown command"));
+            return;
+        }
+        int budget = action.isEmpty() ? RateLimiter.READ : RateLimiter.CONTROL;
+        if (limiter.admit(client, budget) > 0) {
+            reply(ack, HttpResponses.jsonError("rate limited"));
+            return;
+        }
+        if (action.isEmpty()) {
+            reply(ack, PlaybackSession.status());
+            return;
+        }
+        long value;
+        try {
+            value = t.length() > 1 ? Long.parseLong(t.substring(1).trim()) : 0;
+        } catch (NumberFormatException e) {
+            reply(ack, HttpResponses.jsonError("bad value"));
+            return;
+        }
+        PlaybackSession.controlAsync(action, value, status -> reply(ack, status));
+    }
+
+    /** Player action for a command letter, "" for the status query, null when unknown. */
+    static String action(char c) {
+        switch (c) {
+            case 't':
+                return "toggle";
+            case 'p':
+                return "play";
+            case 'a':
+                return "pause";
+            case 'x':
+                return "stop";
+            case 'b':
+                return "seekByMs";
+            case 's':
+                return "seekToMs";
+            case 'v':
+                return "volume";
+            case '?':
+                return "";
+            default:
+                return null;
+        }
+    }
+
+    private void reply(int ack, JSONObject status) {
+        try {
+            status.put("ack", ack);
+        } catch (JSONException ignored) {
+        }
+        stream.send(frame(OP_TEXT, status.toString().getBytes(UTF8)));
+    }
+
+    private void fail(ByteBuffer in, int code) {
+        in.position(in.limit());
+        stream.send(closeFrame(code));
+        stream.close();
+    }
+
+    private static ByteBuffer closeFrame(int code) {
+        return frame(OP_CLOSE, new byte[] {(byte) (code >> 8), (byte) code});
+    }
+
+    /** Unmasked server frame. */
+    private static ByteBuffer frame(int op, byte[] payload) {
+        int n = payload.length;
+        int head = n < 126 ? 2 : (n <= 0xffff ? 4 : 10);
+        ByteBuffer b = ByteBuffer.allocate(head + n);
+        b.put((byte) (0x80 | op));
+        if (n < 126) {
+            b.put((byte) n);
+        } else if (n <= 0xffff) {
+            b.put((byte) 126);
+            b.putShort((short) n);
+        } else {
+            b.put((byte) 127);
+            b.putLong(n);
+        }
+        b.put(payload);
+        b.flip();
+        return b;
+    }
+}
@@ -0,0 +1,436 @@
+package com.linplayer.tvlegacy.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.nio.charset.Charset;
+
+/**
+ * Request head parsed in place over the connection's read buffer. One instance lives per
+ * connection and is reset between requests; the head is scanned once as bytes arrive, header names
+ * are matched without allocating, and the query string is only decoded for the keys asked for.
+ * A chunked body is decoded in place too, so the body always ends up contiguous after the head.
+ */
+final class HttpRequest {
+    static final int NEED_MORE = 0;
+    static final int HEAD_DONE = 1;
+    static final int BAD_REQUEST = -1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAX_HEADERS = 48;
+    // Chunk size line plus extensions, or one trailer line.
+    private static final int MAX_CHUNK_LINE = 1024;
+
+    private static final int CHUNK_SIZE = 0;
+    private static final int CHUNK_DATA = 1;
+    private static final int CHUNK_END = 2;
+    private static final int CHUNK_TRAILER = 3;
+    private static final String[] KNOWN_METHODS = {"GET", "POST", "HEAD", "PUT", "DELETE", "OPTIONS"};
+
+    private byte[] buf;
+    private int scan;
+    private int lineStart;
+    private boolean requestLineDone;
+    private int methodStart;
+    private int methodEnd;
+    private int pathStart;
+    private int pathEnd;
+    private int queryEnd;
+    private boolean http11;
+
+    // nameStart, nameEnd, valueStart, valueEnd per header.
+    private final int[] headers = new int[MAX_HEADERS * 4];
+    private int headerCount;
+    private int headEnd = -1;
+    private long contentLength;
+    private boolean keepAlive;
+
+    // Chunked body: raw input is read at chunkScan and its data moved down to bodyEnd.
+    private boolean chunked;
+    private int chunkState;
+    private long chunkLeft;
+    private int chunkScan;
+    private int bodyEnd;
+    private int frameEnd = -1;
+
+    private String method;
+    private String path;
+
+    // Per connection; survives reset().
+    private InetAddress remote;
+
+    void reset() {
+        buf = null;
+        scan = 0;
+        lineStart = 0;
+        requestLineDone = false;
+        methodStart = 0;
+        methodEnd = 0;
+        pathStart = 0;
+        pathEnd = 0;
+        queryEnd = 0;
+        http11 = false;
+        headerCount = 0;
+        headEnd = -1;
+        contentLength = 0;
+        keepAlive = false;
+        chunked = false;
+        chunkState = CHUNK_SIZE;
+        chunkLeft = 0;
+        chunkScan = 0;
+        bodyEnd = 0;
+        frameEnd = -1;
+        method = null;
+        path = null;
+    }
+
+    /**
+     * Continues scanning {@code buf[0, len)} from where the previous call stopped. Bytes already
+     * scanned must not move; the array itself may be replaced by a larger copy.
+     */
+    int parse(byte[] buf, int len) {
+        this.buf = buf;
+        if (headEnd >= 0) return HEAD_DONE;
+        for (int i = scan; i < len; i++) {
+            if (buf[i] != '\n') continue;
+            int end = i > lineStart && buf[i - 1] == '\r' ? i - 1 : i;
+            int start = lineStart;
+            lineStart = i + 1;
+            scan = i + 1;
+            if (!requestLineDone) {
+                if (end == start) continue; // tolerate stray CRLF between pipelined requests
+                if (!parseRequestLine(start, end)) return BAD_REQUEST;
+                requestLineDone = true;
+            } else if (end == start) {
+                headEnd = i + 1;
+                return finishHead() ? HEAD_DONE : BAD_REQUEST;
+            } else if (!parseHeaderLine(start, end)) {
+                return BAD_REQUEST;
+            }
+        }
+        scan = len;
+        return NEED_MORE;
+    }
+
+    /** Offset just past the blank line, or -1 while the head is incomplete. */
+    int headLength() {
+        return headEnd;
+    }
+
+    /**
+     * Head plus declared body, or -1 while the head is incomplete. For a chunked body this is where
+     * the raw chunks end, and -1 until {@link #readChunks} has seen the last one.
+     */
+    long frameLength() {
+        if (headEnd < 0) return -1;
+        return chunked ? frameEnd : headEnd + contentLength;
+    }
+
+    boolean chunked() {
+        return chunked;
+    }
+
+    /**
+     * Decodes more of a chunked body from {@code buf[0, len)}, moving the data down so it directly
+     * follows the head. Returns {@link #HEAD_DONE} once the last chunk and trailers are in.
+     */
+    int readChunks(byte[] buf, int len) {
+        this.buf = buf;
+        while (frameEnd < 0) {
+            if (chunkState == CHUNK_DATA) {
+                int n = (int) Math.min(chunkLeft, len - chunkScan);
+                if (n <= 0) return NEED_MORE;
+                if (bodyEnd != chunkScan) System.arraycopy(buf, chunkScan, buf, bodyEnd, n);
+                bodyEnd += n;
+                chunkScan += n;
+                chunkLeft -= n;
+                if (chunkLeft == 0) chunkState = CHUNK_END;
+                continue;
+            }
+            int nl = indexOf(chunkScan, len, (byte) '\n');
+            if (nl < 0) return len - chunkScan > MAX_CHUNK_LINE ? BAD_REQUEST : NEED_MORE;
+            int end = nl > chunkScan && buf[nl - 1] == '\r' ? nl - 1 : nl;
+            if (end - chunkScan > MAX_CHUNK_LINE) return BAD_REQUEST;
+            if (chunkState == CHUNK_END) {
+                if (end != chunkScan) return BAD_REQUEST;
+                chunkState = CHUNK_SIZE;
+            } else if (chunkState == CHUNK_SIZE) {
+                long size = parseChunkSize(chunkScan, end);
+                if (size < 0) return BAD_REQUEST;
+                chunkLeft = size;
+                chunkState = size > 0 ? CHUNK_DATA : CHUNK_TRAILER;
+            } else if (end == chunkScan) {
+                frameEnd = nl + 1; // blank line after the trailers
+            }
+            chunkScan = nl + 1;
+        }
+        contentLength = bodyEnd - headEnd;
+        return HEAD_DONE;
+    }
+
+    boolean keepAlive() {
+        return keepAlive;
+    }
+
+    boolean http11() {
+        return http11;
+    }
+
+    InetAddress remoteAddress() {
+        return remote;
+    }
+
+    void setRemoteAddress(InetAddress address) {
+        remote = address;
+    }
+
+    String method() {
+        String m = method;
+        if (m != null) return m;
+        for (String known : KNOWN_METHODS) {
+            if (regionEquals(methodStart, methodEnd, known, false)) {
+                method = known;
+                return known;
+            }
+        }
+        method = new String(buf, methodStart, methodEnd - methodStart, UTF8).toUpperCase();
+        return method;
+    }
+
+    boolean isMethod(String m) {
+        return regionEquals(methodStart, methodEnd, m, true);
+    }
+
+    String path() {
+        String p = path;
+        if (p != null) return p;
+        path = pathEnd > pathStart ? new String(buf, pathStart, pathEnd - pathStart, UTF8) : "/";
+        return path;
+    }
+
+    boolean pathStartsWith(String prefix) {
+        int n = prefix.length();
+        if (pathEnd - pathStart < n) return false;
+        return regionEquals(pathStart, pathStart + n, prefix, false);
+    }
+
+    /** Decoded value of the first {@code name} query parameter, or null. */
+    String query(String name) {
+        int i = pathEnd < queryEnd ? pathEnd + 1 : queryEnd;
+        while (i < queryEnd) {
+            int pairEnd = i;
+            while (pairEnd < queryEnd && buf[pairEnd] != '&') pairEnd++;
+            int eq = i;
+            while (eq < pairEnd && buf[eq] != '=') eq++;
+            if (keyMatches(i, eq, name)) {
+                return eq < pairEnd ? decode(eq + 1, pairEnd) : "";
+            }
+            i = pairEnd + 1;
+        }
+        return null;
+    }
+
+    /** Trimmed value of header {@code lowerName} (lower-case ASCII), or null. */
+    String header(String lowerName) {
+        int h = findHeader(lowerName);
+        if (h < 0) return null;
+        return new String(buf, headers[h + 2], headers[h + 3] - headers[h + 2], UTF8);
+    }
+
+    boolean hasHeader(String lowerName) {
+        return findHeader(lowerName) >= 0;
+    }
+
+    /** Case-insensitive token search inside the value of header {@code lowerName}. */
+    boolean headerContains(String lowerName, String lowerToken) {
+        int h = findHeader(lowerName);
+        if (h < 0) return false;
+        int from = headers[h + 2];
+        int to = headers[h + 3];
+        int n = lowerToken.length();
+        for (int i = from; i + n <= to; i++) {
+            if (regionEquals(i, i + n, lowerToken, true)) return true;
+        }
+        return false;
+    }
+
+    byte[] array() {
+        return buf;
+    }
+
+    int bodyOffset() {
+        return headEnd;
+    }
+
+    /** Declared body length; for a chunked body, the bytes decoded so far. */
+    int bodyLength() {
+        if (chunked) return headEnd < 0 ? 0 : bodyEnd - headEnd;
+        return (int) contentLength;
+    }
+
+    String bodyString() {
+        return contentLength > 0 ? new String(buf, headEnd, (int) contentLength, UTF8) : "";
+    }
+
+    /** The body as a stream over the read buffer, for handlers that consume it as they go. */
+    InputStream bodyStream() {
+        return new ByteArrayInputStream(buf, headEnd, bodyLength());
+    }
+
+    private boolean parseRequestLine(int start, int end) {
+        methodStart = start;
+        int sp1 = indexOf(start, end, (byte) ' ');
+        if (sp1 <= start) return false;
+        methodEnd = sp1;
+        pathStart = sp1 + 1;
+        int sp2 = indexOf(pathStart, end, (byte) ' ');
+        int targetEnd = sp2 < 0 ? end : sp2;
+        if (targetEnd <= pathStart) return false;
+        int q = indexOf(pathStart, targetEnd, (byte) '?');
+        pathEnd = q < 0 ? targetEnd : q;
+        queryEnd = targetEnd;
+        http11 = sp2 >= 0 && regionEquals(sp2 + 1, end, "HTTP/1.1", true);
+        return true;
+    }
+
+    private boolean parseHeaderLine(int start, int end) {
+        int colon = indexOf(start, end, (byte) ':');
+        if (colon <= start) return true; // ignore junk lines like the old parser did
+        if (headerCount >= MAX_HEADERS) return false;
+        int ns = start;
+        int ne = colon;
+        while (ne > ns && isSpace(buf[ne - 1])) ne--;
+        int vs = colon + 1;
+        int ve = end;
+        while (vs < ve && isSpace(buf[vs])) vs++;
+        while (ve > vs && isSpace(buf[ve - 1])) ve--;
+        int o = headerCount * 4;
+        headers[o] = ns;
+        headers[o + 1] = ne;
+        headers[o + 2] = vs;
+        headers[o + 3] = ve;
+        headerCount++;
+        return true;
+    }
+
+    private boolean finishHead() {
+        int h = findHeader("content-length");
+        if (h >= 0) {
+            long v = 0;
+            int from = headers[h + 2];
+            int to = headers[h + 3];
+            if (from == to) return false;
+            for (int i = from; i < to; i++) {
+                byte b = buf[i];
+                if (b < '0' || b > '9') return false;
+                v = v * 10 + (b - '0');
+                if (v > Integer.MAX_VALUE) return false;
+            }
+            contentLength = v;
+        }
+        int te = findHeader("transfer-encoding");
+        if (te >= 0) {
+            // Only plain chunked is understood; next to Content-Length the framing is ambiguous.
+            if (h >= 0 || !regionEquals(headers[te + 2], headers[te + 3], "chunked", true)) {
+                return false;
+            }
+            chunked = true;
+            chunkScan = headEnd;
+            bodyEnd = headEnd;
+        }
+        if (headerContains("connection", "close")) {
+            keepAlive = false;
+        } else {
+            keepAlive = http11 || headerContains("connection", "keep-alive");
+        }
+        return true;
+    }
+
+    /** Hex size up to an optional {@code ;extension}, or -1. */
+    private long parseChunkSize(int from, int to) {
+        long v = 0;
+        int i = from;
+        for (; i < to; i++) {
+            int d = hex(buf[i]);
+            if (d < 0) break;
+            v = (v << 4) | d;
+            if (v > Integer.MAX_VALUE) return -1;
+        }
+        if (i == from) return -1;
+        while (i < to && isSpace(buf[i])) i++;
+        return i == to || buf[i] == ';' ? v : -1;
+    }
+
+    private int findHeader(String lowerName) {
+        int n = lowerName.length();
+        for (int h = 0; h < headerCount * 4; h += 4) {
+            if (headers[h + 1] - headers[h] != n) continue;
+            if (regionEquals(headers[h], headers[h + 1], lowerName, true)) return h;
+        }
+        return -1;
+    }
+
+    private boolean keyMatches(int from, int to, String name) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == '%' || buf[i] == '+') return name.equals(decode(from, to));
+        }
+        return regionEquals(from, to, name, false);
+    }
+
+    /** Compares ASCII bytes with {@code s}; with {@code ignoreCase} the bytes are lower-cased. */
+    private boolean regionEquals(int from, int to, String s, boolean ignoreCase) {
+        if (to - from != s.length()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            int b = buf[from + i];
+            if (ignoreCase && b >= 'A' && b <= 'Z') b += 'a' - 'A';
+            int c = s.charAt(i);
+            if (ignoreCase && c >= 'A' && c <= 'Z') c += 'a' - 'A';
+            if (b != c) return false;
+        }
+        return true;
+    }
+
+    private String decode(int from, int to) {
+        boolean plain = true;
+        for (int i = from; i < to; i++) {
+            if (buf[i] == '%' || buf[i] == '+') {
+                plain = false;
+                break;
+            }
+        }
+        if (plain) return new String(buf, from, to - from, UTF8);
+
+        byte[] out = new byte[to - from];
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            byte b = buf[i];
+            if (b == '+') {
+                out[n++] = ' ';
+            } else if (b == '%' && i + 2 < to && hex(buf[i + 1]) >= 0 && hex(buf[i + 2]) >= 0) {
+                out[n++] = (byte) ((hex(buf[i + 1]) << 4) | hex(buf[i + 2]));
+                i += 2;
+            } else {
+                out[n++] = b;
+            }
+        }
+        return new String(out, 0, n, UTF8);
+    }
+
+    private int indexOf(int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == b) return i;
+        }
+        return -1;
+    }
+
+    private static int hex(byte b) {
+        if (b >= '0' && b <= '9') return b - '0';
+        if (b >= 'a' && b <= 'f') return b - 'a' + 10;
+        if (b >= 'A' && b <= 'F') return b - 'A' + 10;
+        return -1;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+}
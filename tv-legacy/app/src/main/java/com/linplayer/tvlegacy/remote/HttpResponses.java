@@ -0,0 +1,110 @@
+package com.linplayer.tvlegacy.remote;
+
+import android.util.JsonWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/** Response writers shared by the router and the endpoints. */
+final class HttpResponses {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private HttpResponses() {}
+
+    static JSONObject jsonError(String msg) {
+        try {
+            JSONObject o = new JSONObject();
+            o.put("ok", false);
+            o.put("error", msg != null ? msg : "error");
+            return o;
+        } catch (JSONException e) {
+            return new JSONObject();
+        }
+    }
+
+    static void writeJson(NioHttpEngine.Response out, JSONObject obj) {
+        if (out != null && obj != null && !obj.optBoolean("ok", true)) out.failed = true;
+        byte[] b = (obj != null ? obj.toString() : "{}").getBytes(UTF8);
+        writeBytes(out, 200, "application/json; charset=utf-8", b);
+    }
+
+    static void writePlain(NioHttpEngine.Response out, int code, String text) {
+        byte[] b = (text != null ? text : "").getBytes(UTF8);
+        writeBytes(out, code, "text/plain; charset=utf-8", b);
+    }
+
+    static void writeBytes(NioHttpEngine.Response out, int code, String contentType, byte[] body) {
+        if (out == null) return;
+        byte[] b = body != null ? body : new byte[0];
+        String status = statusText(code);
+        try {
+            String headers =
+                    "HTTP/1.1 "
+                            + code
+                            + " "
+                            + status
+                            + "\r\n"
+                            + "Content-Type: "
+                            + contentType
+                            + "\r\n"
+                            + "Cache-Control: no-store\r\n"
+                            + "Connection: "
+                            + (out.keepAlive ? "keep-alive" : "close")
+                            + "\r\n"
+                            + "Content-Length: "
+                            + b.length
+                            + "\r\n"
+                            + "\r\n";
+            out.status = code;
+            out.write(headers.getBytes(UTF8));
+            if (!out.headOnly) out.write(b);
+            out.flush();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Starts a 200 JSON response whose body is written while it is produced, for results that grow
+     * with the input. HTTP/1.1 clients get it chunked and keep the connection; older clients read to
+     * the close. The caller closes the writer to end the body.
+     */
+    static JsonWriter beginJson(HttpRequest req, NioHttpEngine.Response out) {
+        boolean chunked = req.http11();
+        if (!chunked) out.keepAlive = false;
+        String head =
+                "HTTP/1.1 200 OK\r\n"
+                        + "Content-Type: application/json; charset=utf-8\r\n"
+                        + "Cache-Control: no-store\r\n"
+                        + "Connection: "
+                        + (out.keepAlive ? "keep-alive" : "close")
+                        + "\r\n"
+                        + (chunked ? "Transfer-Encoding: chunked\r\n" : "")
+                        + "\r\n";
+        writeHead(out, 200, head);
+        return new JsonWriter(new OutputStreamWriter(out.openBody(chunked), UTF8));
+    }
+
+    /** Writes a response head as-is, e.g. for upgrades and open-ended streams. */
+    static void writeHead(NioHttpEngine.Response out, int code, String head) {
+        try {
+            out.status = code;
+            out.write(head.getBytes(UTF8));
+        } catch (IOException ignored) {
+        }
+    }
+
+    static String statusText(int code) {
+        if (code == 101) return "Switching Protocols";
+        if (code == 200) return "OK";
+        if (code == 304) return "Not Modified";
+        if (code == 400) return "Bad Request";
+        if (code == 401) return "Unauthorized";
+        if (code == 404) return "Not Found";
+        if (code == 405) return "Method Not Allowed";
+        if (code == 426) return "Upgrade Required";
+        if (code == 500) return "Internal Server Error";
+        return "OK";
+    }
+}
@@ -0,0 +1,292 @@
+package com.linplayer.tvlegacy.remote;
+
+import android.os.Process;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * UDP channel for d-pad keys and player commands: one 28-byte datagram per event, no connection,
+ * no parsing beyond fixed offsets. Each datagram carries a client-chosen session id and a sequence
+ * number and is signed with the remote token, so a client may send every event two or three times
+ * to ride out Wi-Fi loss; repeats are acknowledged but applied once.
+ *
+ * <p>The MAC also covers a random epoch drawn at {@link #start} and published in {@code
+ * /api/info}, so datagrams captured before a restart are worthless afterwards. Sessions are never
+ * forgotten within an epoch: when the table is full the epoch changes instead, and datagrams signed
+ * with the previous epoch are answered {@link #STATUS_EPOCH} (fetch it again) without being applied.
+ *
+ * <pre>
+ * 0      'L'
+ * 1      version (2)
+ * 2      type: 1 key, 2 player command
+ * 3      key: 1 up, 2 down, 3 left, 4 right, 5 ok, 6 back
+ *        command: one of the WebSocket letters (t p a x b s v)
+ * 4..7   session id
+ * 8..11  sequence number, increasing per session
+ * 12..19 key: 0 press, 1 down, 2 up; command: value
+ * 20..27 first 8 bytes of HMAC-SHA256(token, epoch || bytes 0..19)
+ * </pre>
+ *
+ * Everything is big-endian. Signed datagrams are answered with {@code 'L', 2, 0x80, status,
+ * session, sequence}; anything else is dropped without a reply. Source addresses can be forged,
+ * so a bad MAC only counts as dropped and never touches the HTTP limiter's budgets.
+ */
+final class KeyChannel {
+    static final int TYPE_KEY = 1;
+    static final int TYPE_COMMAND = 2;
+    static final int TYPE_ACK = 0x80;
+
+    static final int STATUS_OK = 0;
+    static final int STATUS_DUPLICATE = 1;
+    static final int STATUS_LIMITED = 2;
+    static final int STATUS_UNSUPPORTED = 3;
+    static final int STATUS_NO_TARGET = 4;
+    static final int STATUS_EPOCH = 5;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAGIC = 'L';
+    private static final int VERSION = 2;
+    private static final int SIGNED_LENGTH = 20;
+    private static final int MAC_LENGTH = 8;
+    private static final int PACKET_LENGTH = SIGNED_LENGTH + MAC_LENGTH;
+    private static final int ACK_LENGTH = 12;
+    // Sequence numbers further behind the newest one than this are dropped as replays.
+    private static final int WINDOW = 64;
+    private static final int MAX_SESSIONS = 32;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final PlaybackSession.StatusCallback IGNORE_STATUS = status -> {};
+
+    private final RateLimiter limiter;
+    private final KeyInjector injector = new KeyInjector();
+    final StripedCounter received = new StripedCounter();
+    final StripedCounter duplicates = new StripedCounter();
+    final StripedCounter dropped = new StripedCounter();
+
+    private volatile boolean running;
+    private volatile int epoch;
+    private DatagramSocket socket;
+    private Thread thread;
+    // Receiver thread only.
+    private final HashMap<Integer, Window> sessions = new HashMap<>();
+    private int previousEpoch;
+    private Mac mac;
+    private final byte[] digest = new byte[32];
+    private final byte[] epochBytes = new byte[4];
+
+    KeyChannel(RateLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    /** Epoch clients must sign with; 0 when not running. */
+    int epoch() {
+        return running ? epoch : 0;
+    }
+
+    /** Binds {@code port}, or any port when it is taken, and starts receiving; returns the port. */
+    int start(String token, int port) throws IOException {
+        if (running) throw new IllegalStateException("already running");
+        try {
+            mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(token.getBytes(UTF8), "HmacSHA256"));
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e.toString());
+        }
+        DatagramSocket s;
+        try {
+            s = new DatagramSocket(new InetSocketAddress(InetAddress.getByName("0.0.0.0"), port));
+        } catch (SocketException e) {
+            s = new DatagramSocket(new InetSocketAddress(InetAddress.getByName("0.0.0.0"), 0));
+        }
+        socket = s;
+        epoch = newEpoch(0);
+        previousEpoch = 0;
+        running = true;
+        thread = new Thread(this::loop, "tv-legacy-remote-keys");
+        thread.setDaemon(true);
+        thread.start();
+        return s.getLocalPort();
+    }
+
+    void stop() {
+        running = false;
+        DatagramSocket s = socket;
+        socket = null;
+        if (s != null) s.close(); // unblocks receive()
+        Thread t = thread;
+        thread = null;
+        if (t != null && t != Thread.currentThread()) {
+            try {
+                t.join(800);
+            } catch (InterruptedException ignored) {
+            }
+        }
+        injector.shutdown();
+    }
+
+    private void loop() {
+        // Key presses are what the user is waiting on; do not queue behind background work.
+        Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+        DatagramSocket s = socket;
+        byte[] buf = new byte[PACKET_LENGTH + 1];
+        byte[] ack = new byte[ACK_LENGTH];
+        DatagramPacket in = new DatagramPacket(buf, buf.length);
+        DatagramPacket out = new DatagramPacket(ack, ack.length);
+        while (running) {
+            in.setLength(buf.length);
+            try {
+                s.receive(in);
+            } catch (IOException e) {
+                if (!running) break;
+                continue;
+            }
+            received.increment();
+            int status = handle(buf, in.getLength(), in.getAddress());
+            if (status < 0) {
+                dropped.increment();
+                continue;
+            }
+            ack[0] = (byte) MAGIC;
+            ack[1] = (byte) VERSION;
+            ack[2] = (byte) TYPE_ACK;
+            ack[3] = (byte) status;
+            System.arraycopy(buf, 4, ack, 4, 8);
+            out.setSocketAddress(in.getSocketAddress());
+            try {
+                s.send(out);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /** Returns the status to acknowledge, or -1 to drop the datagram silently. */
+    private int handle(byte[] b, int len, InetAddress from) {
+        if (len != PACKET_LENGTH || b[0] != MAGIC || b[1] != VERSION) return -1;
+        if (!signed(b, epoch)) {
+            // A client still on the epoch before a rotation learns to fetch the new one.
+            return previousEpoch != 0 && signed(b, previousEpoch) ? STATUS_EPOCH : -1;
+        }
+
+        int type = b[2] & 0xff;
+        int code = b[3] & 0xff;
+        int session = readInt(b, 4);
+        long seq = readInt(b, 8) & 0xffffffffL;
+        long value = ((long) readInt(b, 12) << 32) | (readInt(b, 16) & 0xffffffffL);
+
+        Window w = window(session);
+        if (w == null) return STATUS_EPOCH;
+        int seen = w.check(seq);
+        if (seen > 0) {
+            duplicates.increment();
+            return STATUS_DUPLICATE;
+        }
+        if (seen < 0) return -1;
+
+        int budget = type == TYPE_KEY ? RateLimiter.READ : RateLimiter.CONTROL;
+        if (limiter.admit(from, budget) > 0) return STATUS_LIMITED; // not marked: a retry may pass
+        w.mark(seq);
+
+        if (type == TYPE_KEY) {
+            int keyCode = KeyInjector.keyCode(code);
+            if (keyCode == 0 || value < KeyInjector.PRESS || value > KeyInjector.UP) {
+                return STATUS_UNSUPPORTED;
+            }
+            return injector.inject(keyCode, (int) value) ? STATUS_OK : STATUS_NO_TARGET;
+        }
+        if (type == TYPE_COMMAND) {
+            String action = ControlSocket.action((char) code);
+            if (action == null || action.isEmpty()) return STATUS_UNSUPPORTED;
+            PlaybackSession.controlAsync(action, value, IGNORE_STATUS);
+            return STATUS_OK;
+        }
+        return STATUS_UNSUPPORTED;
+    }
+
+    /** True when the MAC of {@code b} is right for {@code epochValue}; constant time. */
+    private boolean signed(byte[] b, int epochValue) {
+        epochBytes[0] = (byte) (epochValue >>> 24);
+        epochBytes[1] = (byte) (epochValue >>> 16);
+        epochBytes[2] = (byte) (epochValue >>> 8);
+        epochBytes[3] = (byte) epochValue;
+        mac.update(epochBytes);
+        mac.update(b, 0, SIGNED_LENGTH);
+        try {
+            mac.doFinal(digest, 0);
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+        int diff = 0;
+        for (int i = 0; i < MAC_LENGTH; i++) {
+            diff |= digest[i] ^ b[SIGNED_LENGTH + i];
+        }
+        return diff == 0;
+    }
+
+    /**
+     * Window of {@code session}, or null when the table is full: forgetting a session would let its
+     * old datagrams replay, so the epoch changes instead and every client signs anew.
+     */
+    private Window window(int session) {
+        Window w = sessions.get(session);
+        if (w != null) return w;
+        if (sessions.size() >= MAX_SESSIONS) {
+            previousEpoch = epoch;
+            epoch = newEpoch(previousEpoch);
+            sessions.clear();
+            return null;
+        }
+        w = new Window();
+        sessions.put(session, w);
+        return w;
+    }
+
+    private static int newEpoch(int not) {
+        int e;
+        do {
+            e = RANDOM.nextInt();
+        } while (e == 0 || e == not);
+        return e;
+    }
+
+    private static int readInt(byte[] b, int at) {
+        return ((b[at] & 0xff) << 24)
+                | ((b[at + 1] & 0xff) << 16)
+                | ((b[at + 2] & 0xff) << 8)
+                | (b[at + 3] & 0xff);
+    }
+
+    /** Sliding window over the newest {@link #WINDOW} sequence numbers of one session. */
+    private static final class Window {
+        long highest = -1;
+        long mask; // bit i: highest - i was applied
+
+        /** 0 when new, 1 when already applied, -1 when too old to tell. */
+        int check(long seq) {
+            if (seq > highest) return 0;
+            long behind = highest - seq;
+            if (behind >= WINDOW) return -1;
+            return (mask & (1L << behind)) != 0 ? 1 : 0;
+        }
+
+        void mark(long seq) {
+            if (seq > highest) {
+                long shift = highest < 0 ? WINDOW : seq - highest;
+                mask = shift >= WINDOW ? 0 : mask << shift;
+                highest = seq;
+                mask |= 1;
+            } else {
+                mask |= 1L << (highest - seq);
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.linplayer.tvlegacy.remote;
+
+import android.app.Activity;
+import android.app.Application;
+import android.app.Instrumentation;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.KeyEvent;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Turns remote key events into real input for whichever of our activities is in front. Events go
+ * through the input system like a remote control's, so focus moves between views exactly as with
+ * the d-pad; injecting into our own window needs no permission.
+ */
+final class KeyInjector {
+    static final int PRESS = 0;
+    static final int DOWN = 1;
+    static final int UP = 2;
+
+    // Indexed by the wire code: up, down, left, right, ok, back.
+    private static final int[] KEY_CODES = {
+        0,
+        KeyEvent.KEYCODE_DPAD_UP,
+        KeyEvent.KEYCODE_DPAD_DOWN,
+        KeyEvent.KEYCODE_DPAD_LEFT,
+        KeyEvent.KEYCODE_DPAD_RIGHT,
+        KeyEvent.KEYCODE_DPAD_CENTER,
+        KeyEvent.KEYCODE_BACK
+    };
+
+    private static final Handler MAIN = new Handler(Looper.getMainLooper());
+    private static final AtomicBoolean tracking = new AtomicBoolean();
+    private static volatile WeakReference<Activity> resumed = new WeakReference<>(null);
+
+    // sendKeySync blocks until the event is handled and must not run on the main thread.
+    private final ExecutorService thread =
+            Executors.newSingleThreadExecutor(
+                    r -> {
+                        Thread t = new Thread(r, "tv-legacy-remote-keys-inject");
+                        t.setDaemon(true);
+                        return t;
+                    });
+    private final Instrumentation instrumentation = new Instrumentation();
+    // Injector thread only.
+    private int heldKey;
+    private long downTime;
+    private int repeat;
+
+    /** Starts following the resumed activity; safe to call more than once. */
+    static void track(Application app) {
+        if (app == null || !tracking.compareAndSet(false, true)) return;
+        app.registerActivityLifecycleCallbacks(new Tracker());
+    }
+
+    /** Android key code for a wire key code, or 0. */
+    static int keyCode(int code) {
+        return code > 0 && code < KEY_CODES.length ? KEY_CODES[code] : 0;
+    }
+
+    /** Queues the event; false when none of our activities is in front to receive it. */
+    boolean inject(int keyCode, int mode) {
+        if (resumed.get() == null) return false;
+        try {
+            thread.execute(() -> send(keyCode, mode));
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    void shutdown() {
+        thread.shutdownNow();
+    }
+
+    private void send(int keyCode, int mode) {
+        long now = SystemClock.uptimeMillis();
+        if (mode == PRESS) {
+            release(now);
+            dispatch(new KeyEvent(now, now, KeyEvent.ACTION_DOWN, keyCode, 0));
+            dispatch(new KeyEvent(now, SystemClock.uptimeMillis(), KeyEvent.ACTION_UP, keyCode, 0));
+        } else if (mode == DOWN) {
+            // A held key arrives as repeated downs, as from a real remote.
+            if (heldKey == keyCode) {
+                repeat++;
+            } else {
+                release(now);
+                heldKey = keyCode;
+                downTime = now;
+                repeat = 0;
+            }
+            dispatch(new KeyEvent(downTime, now, KeyEvent.ACTION_DOWN, keyCode, repeat));
+        } else if (heldKey == keyCode) {
+            release(now);
+        }
+    }
+
+    private void release(long now) {
+        if (heldKey == 0) return;
+        dispatch(new KeyEvent(downTime, now, KeyEvent.ACTION_UP, heldKey, 0));
+        heldKey = 0;
+    }
+
+    private void dispatch(KeyEvent event) {
+        try {
+            instrumentation.sendKeySync(event);
+        } catch (RuntimeException e) {
+            // Our window lost input focus (a system dialog, say); the activity still takes keys.
+            Activity a = resumed.get();
+            if (a != null) MAIN.post(() -> a.dispatchKeyEvent(event));
+        }
+    }
+
+    private static final class Tracker implements Application.ActivityLifecycleCallbacks {
+        @Override
+        public void onActivityResumed(Activity activity) {
+            resumed = new WeakReference<>(activity);
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+            if (resumed.get() == activity) resumed = new WeakReference<>(null);
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {}
+
+        @Override
+        public void onActivityStarted(Activity activity) {}
+
+        @Override
+        public void onActivityStopped(Activity activity) {}
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {}
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {}
+    }
+}
@@ -0,0 +1,56 @@
+package com.linplayer.tvlegacy.remote;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Request latencies in fixed buckets, recorded without locks or allocation. The bounds are shared
+ * by every route so exported histograms line up; the last bucket takes everything slower.
+ */
+final class LatencyHistogram {
+    /** Upper bucket bounds in microseconds. */
+    static final long[] BOUNDS_US = {
+        100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000, 1000000,
+        2500000
+    };
+
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS_US.length + 1);
+    private final StripedCounter sumNanos = new StripedCounter();
+
+    void record(long nanos) {
+        long us = nanos / 1000;
+        int i = 0;
+        while (i < BOUNDS_US.length && us > BOUNDS_US[i]) i++;
+        counts.incrementAndGet(i);
+        sumNanos.add(nanos);
+    }
+
+    /** Per-bucket counts (not cumulative); the last entry is the overflow bucket. */
+    long[] counts() {
+        long[] out = new long[counts.length()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = counts.get(i);
+        }
+        return out;
+    }
+
+    long sumNanos() {
+        return sumNanos.sum();
+    }
+
+    /**
+     * Upper bound in microseconds of the bucket holding quantile {@code q} of {@code counts}, or -1
+     * when it falls in the overflow bucket or nothing was recorded.
+     */
+    static long quantileUs(long[] counts, double q) {
+        long total = 0;
+        for (long c : counts) total += c;
+        if (total == 0) return -1;
+        long rank = (long) Math.ceil(q * total);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS_US.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return BOUNDS_US[i];
+        }
+        return -1;
+    }
+}
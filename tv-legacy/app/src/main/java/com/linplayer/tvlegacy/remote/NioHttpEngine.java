@@ -0,0 +1,1051 @@
+package com.linplayer.tvlegacy.remote;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selector based HTTP/1.1 transport: one I/O thread owns every socket and a small fixed worker pool
+ * runs the request handler, so thread count does not grow with the number of clients. Connections
+ * are persistent; pipelined requests on one socket are answered strictly in order. Work waits in a
+ * bounded priority queue and is shed with 503 + Retry-After when that queue is full.
+ */
+final class NioHttpEngine {
+    interface Handler {
+        /** Handles one complete request whose body is already buffered and writes the response. */
+        void handle(HttpRequest req, Response out) throws IOException;
+    }
+
+    interface Prioritizer {
+        /** One of the {@code PRIORITY_*} constants; lower values are served first. */
+        int priority(HttpRequest req);
+    }
+
+    interface BodyLimit {
+        /** Largest body accepted for this request, asked once its head is in; the engine caps it. */
+        int maxBody(HttpRequest req);
+    }
+
+    interface Admission {
+        /**
+         * I/O thread, once a request's head is in and before its body is read: 0 to serve it, else
+         * the seconds the client should wait; it is then answered 429.
+         */
+        int retryAfter(HttpRequest req);
+    }
+
+    /** Owner of an upgraded connection (event stream, WebSocket); one instance per connection. */
+    interface StreamHandler {
+        /** Worker thread, before the response head goes out; {@link Stream#send} already works. */
+        void onOpen(Stream stream);
+
+        /** I/O thread. Consumes what is complete in {@code in} and leaves partial input behind. */
+        void onData(Stream stream, ByteBuffer in) throws IOException;
+
+        /** I/O thread, after a keep-alive timeout without traffic either way; ping or close. */
+        void onIdle(Stream stream);
+
+        /** I/O thread, once, however the connection ended. */
+        void onClosed(Stream stream);
+    }
+
+    static final int PRIORITY_CONTROL = 0;
+    static final int PRIORITY_DEFAULT = 1;
+    static final int PRIORITY_BULK = 2;
+
+    /**
+     * Buffered response for one request. {@link #keepAlive} starts as the engine's decision (client
+     * headers, per-connection cap) and a handler may clear it to close the socket after writing.
+     */
+    static final class Response extends ByteArrayOutputStream {
+        boolean keepAlive;
+        /** Status code of what was written, for accounting; set by the writer. */
+        int status;
+        /** An {@code {ok:false}} answer was written, which goes out as 200; for accounting. */
+        boolean failed;
+        /**
+         * The request was HEAD: writers send the head as usual, and the response drops whatever
+         * body they attach, open or hand to an upgrade, so the next response stays framed.
+         */
+        final boolean headOnly;
+        private final NioHttpEngine engine;
+        private final Conn conn;
+        private ByteBuffer attached;
+        private StreamHandler upgrade;
+        private Body body;
+
+        private Response(NioHttpEngine engine, Conn conn, boolean keepAlive, boolean headOnly) {
+            super(1024);
+            this.engine = engine;
+            this.conn = conn;
+            this.keepAlive = keepAlive;
+            this.headOnly = headOnly;
+        }
+
+        /**
+         * Sends what was written so far (the head) right away and returns the body stream. With
+         * {@code chunked} the head must announce {@code Transfer-Encoding: chunked} and the body is
+         * framed as it is written; otherwise the connection closes after the body. Writes block
+         * while the client is a backlog behind. The handler closes the stream to end the body (the
+         * engine ends it when the handler returns) and must not write to this response afterwards.
+         */
+        OutputStream openBody(boolean chunked) {
+            if (headOnly) return DISCARD;
+            if (body != null) return body;
+            if (!chunked) keepAlive = false;
+            body = engine.new Body(conn, chunked);
+            conn.keepAlive = keepAlive;
+            conn.body = body;
+            conn.out = new ByteBuffer[] {ByteBuffer.wrap(toByteArray())};
+            engine.wake(conn);
+            return body;
+        }
+
+        boolean bodyOpen() {
+            return body != null;
+        }
+
+        /** Ends an open body early; the client sees a truncated response and the connection closes. */
+        void abortBody() {
+            if (body != null) body.finish(true);
+        }
+
+        /** Sends {@code body} after everything written so far without copying it. */
+        void attach(ByteBuffer body) {
+            attached = body != null && !headOnly ? body.duplicate() : null;
+        }
+
+        /**
+         * Keeps the socket after the bytes written so far (the response head, without a length) and
+         * hands it to {@code streamHandler}; the connection is no longer parsed as HTTP.
+         */
+        void upgrade(StreamHandler streamHandler) {
+            upgrade = headOnly ? null : streamHandler;
+        }
+
+        /** Discards everything written so far, including an attached body or an upgrade. */
+        @Override
+        public synchronized void reset() {
+            super.reset();
+            attached = null;
+            upgrade = null;
+            status = 0;
+            failed = false;
+        }
+
+        boolean isEmpty() {
+            return count == 0 && (attached == null || !attached.hasRemaining());
+        }
+
+        ByteBuffer[] toBuffers() {
+            ByteBuffer head = ByteBuffer.wrap(buf, 0, count);
+            return attached != null ? new ByteBuffer[] {head, attached} : new ByteBuffer[] {head};
+        }
+    }
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final OutputStream DISCARD =
+            new OutputStream() {
+                @Override
+                public void write(int b) {}
+
+                @Override
+                public void write(byte[] b, int off, int len) {}
+            };
+
+    private static final int WORKER_THREADS = 2;
+    // Admission thresholds on the whole queue's length, by priority: a job is refused once that
+    // many jobs of any priority wait, so bulk work is shed first and control requests find room.
+    private static final int[] QUEUE_LIMITS = {16, 12, 4};
+    private static final int MAX_CONNECTIONS = 32;
+    private static final int READ_BUFFER_BYTES = 4096;
+    private static final int MAX_HEAD_BYTES = 16 * 1024;
+    private static final int MAX_REQUEST_BYTES = 1024 * 1024;
+    private static final long IDLE_TIMEOUT_MS = 7000;
+    private static final long KEEP_ALIVE_TIMEOUT_MS = 15000;
+    private static final int MAX_REQUESTS_PER_CONN = 200;
+    private static final long SELECT_TIMEOUT_MS = 1000;
+    // Unsent bytes a stream may hold; a peer that falls further behind is dropped, not buffered.
+    private static final int MAX_STREAM_BACKLOG = 64 * 1024;
+    private static final int CHUNK_BYTES = 8 * 1024;
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+    private final Handler handler;
+    private final Prioritizer prioritizer;
+    private final BodyLimit limits;
+    private final Admission admission;
+    private final String name;
+    private final ConcurrentLinkedQueue<Conn> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final ArrayDeque<ByteBuffer> bufferPool = new ArrayDeque<>();
+
+    private volatile boolean running;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread ioThread;
+    private ThreadPoolExecutor workers;
+    // Written by the I/O thread only; volatile so metrics can read it.
+    private volatile int connections;
+    private final AtomicInteger streams = new AtomicInteger();
+    final Counters counters = new Counters();
+    private long jobSeq;
+
+    NioHttpEngine(
+            Handler handler,
+            Prioritizer prioritizer,
+            BodyLimit limits,
+            Admission admission,
+            String name) {
+        this.handler = handler;
+        this.prioritizer = prioritizer;
+        this.limits = limits;
+        this.admission = admission;
+        this.name = name != null && !name.trim().isEmpty() ? name.trim() : "http";
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    int activeConnections() {
+        return connections;
+    }
+
+    /** Upgraded connections (event streams, WebSockets) still open. */
+    int activeStreams() {
+        return streams.get();
+    }
+
+    /** Requests accepted but still waiting for a worker. */
+    int queuedRequests() {
+        ThreadPoolExecutor w = workers;
+        return w != null ? w.getQueue().size() : 0;
+    }
+
+    int busyWorkers() {
+        ThreadPoolExecutor w = workers;
+        return w != null ? w.getActiveCount() : 0;
+    }
+
+    /** Binds {@code port} (0 for any) and starts the I/O thread; returns the bound port. */
+    int start(int port) throws IOException {
+        if (running) throw new IllegalStateException("already running");
+        Selector sel = null;
+        ServerSocketChannel ssc = null;
+        try {
+            sel = Selector.open();
+            ssc = ServerSocketChannel.open();
+            ssc.socket().setReuseAddress(true);
+            ssc.socket().bind(new InetSocketAddress(InetAddress.getByName("0.0.0.0"), Math.max(0, port)));
+            ssc.configureBlocking(false);
+            ssc.register(sel, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            closeQuietly(ssc);
+            closeQuietly(sel);
+            throw e;
+        }
+
+        selector = sel;
+        serverChannel = ssc;
+        workers =
+                new ThreadPoolExecutor(
+                        WORKER_THREADS,
+                        WORKER_THREADS,
+                        0L,
+                        TimeUnit.MILLISECONDS,
+                        new BoundedPriorityQueue(),
+                        daemonThreads(name + "-worker"));
+        running = true;
+        ioThread = new Thread(this::loop, name);
+        ioThread.setDaemon(true);
+        ioThread.start();
+        return ssc.socket().getLocalPort();
+    }
+
+    void stop() {
+        running = false;
+        Selector sel = selector;
+        if (sel != null) sel.wakeup();
+
+        Thread t = ioThread;
+        ioThread = null;
+        if (t != null && t != Thread.currentThread()) {
+            try {
+                t.join(800);
+            } catch (InterruptedException ignored) {
+            }
+        }
+        ThreadPoolExecutor w = workers;
+        workers = null;
+        if (w != null) w.shutdownNow();
+    }
+
+    private void loop() {
+        Selector sel = selector;
+        long lastSweep = now();
+        try {
+            while (running) {
+                sel.select(SELECT_TIMEOUT_MS);
+                if (!running) break;
+
+                Conn ready;
+                while ((ready = pendingWrites.poll()) != null) {
+                    if (!ready.key.isValid()) continue;
+                    if (ready.body != null) {
+                        // Streamed body: the handler still owns the request, so busy stays set.
+                        ready.key.interestOps(SelectionKey.OP_WRITE);
+                        continue;
+                    }
+                    if (ready.busy) {
+                        // A stream may send from onOpen before its response head is handed over.
+                        if (ready.out == null) continue;
+                        ready.busy = false;
+                    }
+                    ready.lastActive = now();
+                    ready.key.interestOps(
+                            ready.stream != null
+                                    ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+                                    : SelectionKey.OP_WRITE);
+                }
+
+                Iterator<SelectionKey> it = sel.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) continue;
+                    try {
+                        if (key.isAcceptable()) {
+                            accept(sel);
+                            continue;
+                        }
+                        Conn c = (Conn) key.attachment();
+                        if (key.isReadable()) read(c);
+                        if (key.isValid() && key.isWritable()) write(c);
+                    } catch (IOException | RuntimeException e) {
+                        Object att = key.attachment();
+                        if (att instanceof Conn) close((Conn) att);
+                    }
+                }
+
+                long t = now();
+                if (t - lastSweep >= SELECT_TIMEOUT_MS) {
+                    lastSweep = t;
+                    sweepIdle(sel, t);
+                }
+            }
+        } catch (IOException | RuntimeException ignored) {
+            // Selector failure: fall through and release everything.
+        } finally {
+            running = false;
+            for (SelectionKey key : sel.keys()) {
+                Object att = key.attachment();
+                if (att instanceof Conn) close((Conn) att);
+            }
+            closeQuietly(serverChannel);
+            closeQuietly(sel);
+            serverChannel = null;
+            selector = null;
+            pendingWrites.clear();
+        }
+    }
+
+    private void accept(Selector sel) throws IOException {
+        SocketChannel ch;
+        while ((ch = serverChannel.accept()) != null) {
+            if (connections >= MAX_CONNECTIONS) {
+                counters.refused.increment();
+                closeQuietly(ch);
+                continue;
+            }
+            try {
+                ch.configureBlocking(false);
+                ch.socket().setTcpNoDelay(true);
+                Conn c = new Conn(ch, acquireBuffer());
+                c.key = ch.register(sel, SelectionKey.OP_READ, c);
+                connections++;
+                counters.accepted.increment();
+            } catch (IOException e) {
+                closeQuietly(ch);
+            }
+        }
+    }
+
+    private void read(Conn c) throws IOException {
+        ensureReadable(c);
+        int n = c.channel.read(c.in);
+        if (n < 0) {
+            close(c);
+            return;
+        }
+        counters.bytesIn.add(n);
+        c.lastActive = now();
+        if (c.stream != null) {
+            deliver(c);
+        } else {
+            processBuffered(c);
+        }
+    }
+
+    /** Hands buffered input to the stream owner and keeps whatever it left unconsumed. */
+    private void deliver(Conn c) throws IOException {
+        ByteBuffer in = c.in;
+        in.flip();
+        c.stream.handler.onData(c.stream, in);
+        in.compact();
+        if (!in.hasRemaining() && in.capacity() >= MAX_REQUEST_BYTES) close(c);
+    }
+
+    /** Dispatches the next buffered request if it is complete; pipelined requests run in order. */
+    private void processBuffered(Conn c) {
+        HttpRequest req = c.request;
+        int len = c.in.position();
+        int state = req.parse(c.in.array(), len);
+        if (state == HttpRequest.BAD_REQUEST) {
+            reject(c, 400, "Bad Request");
+            return;
+        }
+        if (state == HttpRequest.NEED_MORE) {
+            if (len >= MAX_HEAD_BYTES) reject(c, 431, "Request Header Fields Too Large");
+            return;
+        }
+        if (c.maxBody < 0) {
+            // Asked once per request, so a client over budget is refused before its body is read.
+            int wait = admission != null ? admission.retryAfter(req) : 0;
+            if (wait > 0) {
+                tooMany(c, len, wait);
+                return;
+            }
+            int max = limits != null ? limits.maxBody(req) : MAX_REQUEST_BYTES;
+            c.maxBody = Math.max(0, Math.min(max, MAX_REQUEST_BYTES - req.headLength()));
+        }
+        if (req.chunked()) {
+            state = req.readChunks(c.in.array(), len);
+            if (state == HttpRequest.BAD_REQUEST) {
+                reject(c, 400, "Bad Request");
+                return;
+            }
+        }
+        // Declared lengths are refused before any of the body is buffered; chunks as they decode.
+        if (req.bodyLength() > c.maxBody) {
+            reject(c, 413, "Payload Too Large");
+            return;
+        }
+        long frame = req.frameLength();
+        if (frame < 0) {
+            // Chunk framing overhead can still fill the largest buffer without ending the body.
+            if (len >= MAX_REQUEST_BYTES) reject(c, 413, "Payload Too Large");
+            return;
+        }
+        if (len < frame) return;
+
+        c.frame = (int) frame;
+        c.requests++;
+        boolean keepAlive = req.keepAlive() && c.requests < MAX_REQUESTS_PER_CONN;
+        int priority = prioritizer != null ? prioritizer.priority(req) : PRIORITY_DEFAULT;
+        dispatch(c, keepAlive, priority);
+    }
+
+    private void ensureReadable(Conn c) {
+        if (c.in.hasRemaining()) return;
+        int cap = c.in.capacity();
+        if (cap >= MAX_REQUEST_BYTES) return;
+        ByteBuffer bigger = ByteBuffer.allocate(Math.min(MAX_REQUEST_BYTES, cap * 2));
+        c.in.flip();
+        bigger.put(c.in);
+        releaseBuffer(c.in);
+        c.in = bigger;
+    }
+
+    /** Read buffers of the default size are recycled, so steady-state accepts do not allocate. */
+    private ByteBuffer acquireBuffer() {
+        ByteBuffer b = bufferPool.poll();
+        return b != null ? b : ByteBuffer.allocate(READ_BUFFER_BYTES);
+    }
+
+    private void releaseBuffer(ByteBuffer b) {
+        if (b == null || b.capacity() != READ_BUFFER_BYTES) return;
+        if (bufferPool.size() >= MAX_CONNECTIONS) return;
+        b.clear();
+        bufferPool.push(b);
+    }
+
+    private void dispatch(Conn c, boolean keepAlive, int priority) {
+        ThreadPoolExecutor w = workers;
+        if (w == null) {
+            close(c);
+            return;
+        }
+        c.busy = true;
+        c.key.interestOps(0);
+        try {
+            w.execute(new Job(c, keepAlive, priority, jobSeq++));
+            counters.requests.increment();
+        } catch (RejectedExecutionException e) {
+            c.busy = false;
+            if (w.isShutdown()) {
+                close(c);
+            } else {
+                shed(c, keepAlive);
+            }
+        }
+    }
+
+    private void runHandler(Conn c, boolean keepAlive) {
+        Response out = new Response(this, c, keepAlive, c.request.isMethod("HEAD"));
+        boolean failed = false;
+        try {
+            handler.handle(c.request, out);
+        } catch (Exception ignored) {
+            failed = true;
+            out.keepAlive = false;
+            out.upgrade = null;
+        }
+        if (out.body != null) {
+            out.body.finish(failed);
+            return;
+        }
+        if (out.isEmpty()) {
+            out.keepAlive = false;
+            out.upgrade = null;
+        }
+        if (out.upgrade != null) {
+            Stream s = new Stream(c, out.upgrade);
+            c.stream = s;
+            streams.incrementAndGet();
+            try {
+                s.handler.onOpen(s);
+            } catch (RuntimeException e) {
+                s.close();
+            }
+            respond(c, out.toBuffers(), false);
+            return;
+        }
+        respond(c, out.toBuffers(), out.keepAlive);
+    }
+
+    private void respond(Conn c, ByteBuffer[] response, boolean keepAlive) {
+        c.keepAlive = keepAlive;
+        c.out = response;
+        wake(c);
+    }
+
+    /** Overloaded: answer right away from the I/O thread instead of queueing more work. */
+    private void shed(Conn c, boolean keepAlive) {
+        counters.shed.increment();
+        refuse(c, keepAlive, "503 Service Unavailable", 1);
+    }
+
+    /**
+     * Refuses a request whose head is in. Its body is not read: the connection stays usable only
+     * when the whole request is already buffered, and closes after the answer otherwise.
+     */
+    private void tooMany(Conn c, int len, int wait) {
+        HttpRequest req = c.request;
+        long frame = req.frameLength();
+        boolean keepAlive = false;
+        if (frame >= 0 && len >= frame) {
+            c.frame = (int) frame;
+            c.requests++;
+            keepAlive = req.keepAlive() && c.requests < MAX_REQUESTS_PER_CONN;
+        }
+        refuse(c, keepAlive, "429 Too Many Requests", wait);
+    }
+
+    /** Answers a complete request without running it; the connection stays usable. */
+    private void refuse(Conn c, boolean keepAlive, String status, int retryAfter) {
+        String head =
+                "HTTP/1.1 "
+                        + status
+                        + "\r\n"
+                        + "Retry-After: "
+                        + retryAfter
+                        + "\r\n"
+                        + "Cache-Control: no-store\r\n"
+                        + "Connection: "
+                        + (keepAlive ? "keep-alive" : "close")
+                        + "\r\n"
+                        + "Content-Length: 0\r\n"
+                        + "\r\n";
+        c.keepAlive = keepAlive;
+        c.out = new ByteBuffer[] {ByteBuffer.wrap(head.getBytes(UTF8))};
+        c.key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    private void reject(Conn c, int code, String reason) {
+        String head =
+                "HTTP/1.1 "
+                        + code
+                        + " "
+                        + reason
+                        + "\r\n"
+                        + "Connection: close\r\n"
+                        + "Content-Length: 0\r\n"
+                        + "\r\n";
+        counters.rejected.increment();
+        c.keepAlive = false;
+        c.out = new ByteBuffer[] {ByteBuffer.wrap(head.getBytes(UTF8))};
+        c.key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    private void write(Conn c) throws IOException {
+        ByteBuffer[] out = c.out;
+        if (hasRemaining(out)) {
+            counters.bytesOut.add(c.channel.write(out));
+            c.lastActive = now();
+        }
+        if (hasRemaining(out)) return;
+
+        c.out = null;
+        if (c.stream != null) {
+            flushStream(c);
+            return;
+        }
+        Body body = c.body;
+        if (body != null && !flushBody(c, body)) return;
+        if (!c.keepAlive) {
+            close(c);
+            return;
+        }
+        consumeFrame(c);
+        c.key.interestOps(SelectionKey.OP_READ);
+        processBuffered(c);
+    }
+
+    private void flushStream(Conn c) throws IOException {
+        Stream s = c.stream;
+        if (c.frame > 0) {
+            // First flush after the upgrade: bytes behind the request already belong to the stream.
+            consumeFrame(c);
+            if (c.in.position() > 0) deliver(c);
+            if (c.closed) return;
+        }
+        ByteBuffer b;
+        while ((b = s.queue.peek()) != null) {
+            int n = c.channel.write(b);
+            counters.bytesOut.add(n);
+            s.queued.addAndGet(-n);
+            if (n > 0) c.lastActive = now();
+            if (b.hasRemaining()) {
+                c.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            s.queue.poll();
+        }
+        if (s.closing) {
+            close(c);
+        } else {
+            c.key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /** Writes queued body chunks; true once the body is complete and fully written. */
+    private boolean flushBody(Conn c, Body body) throws IOException {
+        // Read before draining: everything enqueued before done was set is then seen below.
+        boolean done = body.done;
+        ByteBuffer b;
+        boolean progressed = false;
+        while ((b = body.queue.peek()) != null) {
+            int n = c.channel.write(b);
+            if (n > 0) {
+                counters.bytesOut.add(n);
+                body.queued.addAndGet(-n);
+                c.lastActive = now();
+                progressed = true;
+            }
+            if (b.hasRemaining()) break;
+            body.queue.poll();
+        }
+        if (progressed) body.drained();
+        if (!body.queue.isEmpty()) return false; // socket full; stay on OP_WRITE
+        if (!done) {
+            c.key.interestOps(0); // wait for the handler's next chunk
+            return false;
+        }
+        c.body = null;
+        c.busy = false;
+        return true;
+    }
+
+    private void wake(Conn c) {
+        pendingWrites.add(c);
+        Selector sel = selector;
+        if (sel != null) sel.wakeup();
+    }
+
+    /** Drops the request that was just answered and shrinks a grown buffer back once it is idle. */
+    private void consumeFrame(Conn c) {
+        ByteBuffer in = c.in;
+        int rest = in.position() - c.frame;
+        c.frame = 0;
+        c.maxBody = -1;
+        c.request.reset();
+        if (rest <= 0) {
+            if (in.capacity() > READ_BUFFER_BYTES) c.in = acquireBuffer();
+            else in.clear();
+            return;
+        }
+        in.flip();
+        in.position(in.limit() - rest);
+        if (in.capacity() > READ_BUFFER_BYTES && rest <= READ_BUFFER_BYTES) {
+            ByteBuffer smaller = acquireBuffer();
+            smaller.put(in);
+            c.in = smaller;
+        } else {
+            in.compact();
+        }
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] bufs) {
+        if (bufs == null) return false;
+        for (ByteBuffer b : bufs) {
+            if (b.hasRemaining()) return true;
+        }
+        return false;
+    }
+
+    private void sweepIdle(Selector sel, long t) {
+        for (SelectionKey key : sel.keys()) {
+            Object att = key.attachment();
+            if (!(att instanceof Conn)) continue;
+            Conn c = (Conn) att;
+            if (c.busy || c.closed) continue;
+            if (c.stream != null) {
+                // Streams stay open while their owner keeps them alive (heartbeats, pings).
+                if (t - c.lastActive > KEEP_ALIVE_TIMEOUT_MS) {
+                    c.lastActive = t;
+                    try {
+                        c.stream.handler.onIdle(c.stream);
+                    } catch (RuntimeException e) {
+                        close(c);
+                    }
+                }
+                continue;
+            }
+            long limit = c.in.position() == 0 && c.out == null ? KEEP_ALIVE_TIMEOUT_MS : IDLE_TIMEOUT_MS;
+            if (t - c.lastActive > limit) {
+                counters.idleTimeouts.increment();
+                close(c);
+            }
+        }
+    }
+
+    private void close(Conn c) {
+        if (c == null || c.closed) return;
+        c.closed = true;
+        connections--;
+        if (c.key != null) c.key.cancel();
+        closeQuietly(c.channel);
+        if (!c.busy) {
+            releaseBuffer(c.in);
+            c.in = null;
+        }
+        Body body = c.body;
+        if (body != null) body.drained();
+        Stream s = c.stream;
+        if (s != null) {
+            streams.decrementAndGet();
+            s.closing = true;
+            s.queue.clear();
+            try {
+                s.handler.onClosed(s);
+            } catch (RuntimeException ignored) {
+            }
+        }
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000L;
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        final AtomicInteger seq = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c == null) return;
+        try {
+            c.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static void closeQuietly(Selector s) {
+        if (s == null) return;
+        try {
+            s.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Upgraded connection. {@link #send} may be called from any thread and never blocks; the I/O
+     * thread writes queued buffers in order.
+     */
+    final class Stream {
+        final StreamHandler handler;
+        private final Conn conn;
+        private final ConcurrentLinkedQueue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queued = new AtomicInteger();
+        private volatile boolean closing;
+
+        private Stream(Conn conn, StreamHandler handler) {
+            this.conn = conn;
+            this.handler = handler;
+        }
+
+        boolean isOpen() {
+            return !closing && !conn.closed;
+        }
+
+        /**
+         * Queues {@code data} (shared, not copied; its position is left alone). Returns false once
+         * the stream is closed, including when this send would exceed the backlog limit.
+         */
+        boolean send(ByteBuffer data) {
+            if (!isOpen()) return false;
+            if (queued.addAndGet(data.remaining()) > MAX_STREAM_BACKLOG) {
+                if (!closing) counters.slowClients.increment();
+                closing = true;
+                queue.clear();
+                wake(conn);
+                return false;
+            }
+            queue.add(data.duplicate());
+            wake(conn);
+            return true;
+        }
+
+        /** Closes after everything already queued has been written. */
+        void close() {
+            if (closing) return;
+            closing = true;
+            wake(conn);
+        }
+    }
+
+    /** Streamed response body, written by a worker and sent by the I/O thread. */
+    private final class Body extends OutputStream {
+        private final Conn conn;
+        private final boolean chunked;
+        private final byte[] buf = new byte[CHUNK_BYTES];
+        private final ConcurrentLinkedQueue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queued = new AtomicInteger();
+        private volatile boolean done;
+        private int count;
+        private boolean closed;
+
+        Body(Conn conn, boolean chunked) {
+            this.conn = conn;
+            this.chunked = chunked;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buf.length) emit();
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buf.length) emit();
+                int n = Math.min(len, buf.length - count);
+                System.arraycopy(b, off, buf, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (count > 0) emit();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            flush();
+            closed = true;
+            if (chunked) enqueue(ByteBuffer.wrap(LAST_CHUNK));
+            done = true;
+            wake(conn);
+        }
+
+        /** Called by the engine once the handler has returned. */
+        void finish(boolean failed) {
+            if (!failed) {
+                try {
+                    close();
+                    return;
+                } catch (IOException ignored) {
+                    // Fall through: the body is cut short, so the connection must not be reused.
+                }
+            }
+            closed = true;
+            conn.keepAlive = false;
+            done = true;
+            wake(conn);
+        }
+
+        private void emit() throws IOException {
+            if (closed) throw new IOException("body closed");
+            ByteBuffer b;
+            if (chunked) {
+                byte[] size = Integer.toHexString(count).getBytes(UTF8);
+                b = ByteBuffer.allocate(size.length + 2 + count + 2);
+                b.put(size).put(CRLF).put(buf, 0, count).put(CRLF);
+            } else {
+                b = ByteBuffer.allocate(count);
+                b.put(buf, 0, count);
+            }
+            b.flip();
+            count = 0;
+            enqueue(b);
+        }
+
+        private void enqueue(ByteBuffer b) throws IOException {
+            awaitRoom();
+            queued.addAndGet(b.remaining());
+            queue.add(b);
+            wake(conn);
+        }
+
+        /** Blocks the producing worker while the client is more than a backlog behind. */
+        private void awaitRoom() throws IOException {
+            if (conn.closed) throw new IOException("connection closed");
+            if (queued.get() <= MAX_STREAM_BACKLOG) return;
+            long deadline = now() + IDLE_TIMEOUT_MS;
+            synchronized (this) {
+                while (queued.get() > MAX_STREAM_BACKLOG) {
+                    if (conn.closed) throw new IOException("connection closed");
+                    long left = deadline - now();
+                    if (left <= 0) {
+                        counters.slowClients.increment();
+                        throw new IOException("client too slow");
+                    }
+                    try {
+                        wait(left);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+            }
+        }
+
+        /** I/O thread: bytes went out or the connection closed. */
+        synchronized void drained() {
+            notifyAll();
+        }
+    }
+
+    private final class Job implements Runnable {
+        final Conn conn;
+        final boolean keepAlive;
+        final int priority;
+        final long seq;
+
+        Job(Conn conn, boolean keepAlive, int priority, long seq) {
+            this.conn = conn;
+            this.keepAlive = keepAlive;
+            this.priority = Math.max(PRIORITY_CONTROL, Math.min(PRIORITY_BULK, priority));
+            this.seq = seq;
+        }
+
+        @Override
+        public void run() {
+            runHandler(conn, keepAlive);
+        }
+    }
+
+    /**
+     * Priority order (then FIFO). A job is refused when the total number of queued jobs has
+     * reached its priority's threshold in {@link #QUEUE_LIMITS}. Only the I/O thread offers jobs,
+     * so the size check and the insert do not race with other producers. Never serialized.
+     */
+    @SuppressWarnings("serial")
+    private static final class BoundedPriorityQueue extends PriorityBlockingQueue<Runnable> {
+        BoundedPriorityQueue() {
+            super(
+                    QUEUE_LIMITS[0],
+                    (a, b) -> {
+                        Job x = (Job) a;
+                        Job y = (Job) b;
+                        if (x.priority != y.priority) return x.priority < y.priority ? -1 : 1;
+                        return x.seq < y.seq ? -1 : (x.seq == y.seq ? 0 : 1);
+                    });
+        }
+
+        @Override
+        public boolean offer(Runnable r) {
+            if (size() >= QUEUE_LIMITS[((Job) r).priority]) return false;
+            return super.offer(r);
+        }
+    }
+
+    /** Totals since start; see {@link RemoteMetrics} for what is exported. */
+    static final class Counters {
+        final StripedCounter accepted = new StripedCounter();
+        /** Connections closed right away because {@code MAX_CONNECTIONS} were open. */
+        final StripedCounter refused = new StripedCounter();
+        /** Requests handed to a worker. */
+        final StripedCounter requests = new StripedCounter();
+        /** Requests answered 503 because the worker queue was full. */
+        final StripedCounter shed = new StripedCounter();
+        /** Malformed or oversized requests answered 400/413/431 by the engine. */
+        final StripedCounter rejected = new StripedCounter();
+        final StripedCounter idleTimeouts = new StripedCounter();
+        /** Streams dropped for backlog overflow and bodies abandoned for slow readers. */
+        final StripedCounter slowClients = new StripedCounter();
+        final StripedCounter bytesIn = new StripedCounter();
+        final StripedCounter bytesOut = new StripedCounter();
+    }
+
+    private static final class Conn {
+        final SocketChannel channel;
+        final HttpRequest request = new HttpRequest();
+        SelectionKey key;
+        ByteBuffer in;
+        volatile ByteBuffer[] out;
+        volatile boolean keepAlive;
+        volatile boolean busy;
+        volatile boolean closed;
+        volatile Stream stream;
+        volatile Body body;
+        int frame;
+        int maxBody = -1;
+        int requests;
+        long lastActive = now();
+
+        Conn(SocketChannel channel, ByteBuffer in) {
+            this.channel = channel;
+            this.in = in;
+            request.setRemoteAddress(channel.socket().getInetAddress());
+        }
+    }
+}
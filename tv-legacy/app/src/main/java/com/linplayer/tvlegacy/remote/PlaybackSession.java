@@ -2,78 +2,392 @@ package com.linplayer.tvlegacy.remote;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Player;
 import com.google.android.exoplayer2.SimpleExoPlayer;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+/**
+ * Bridge between the remote server threads and the player, which lives on the main thread. The
+ * main thread publishes an immutable {@link State} whenever the player reports a change and once a
+ * second while attached; readers on any thread just take the latest one. Controls are queued with
+ * an id and applied in order on the main thread, so no server thread waits for the UI. A seek is
+ * applied at once; seeks that follow it within {@link #SEEK_WINDOW_MS} are folded into a single
+ * {@code seekTo} at the end of the window, since every intermediate target would make ExoPlayer
+ * drop its buffer and open new range requests.
+ */
 public final class PlaybackSession {
-    private static final Object LOCK = new Object();
     private static final Handler MAIN = new Handler(Looper.getMainLooper());
+    private static final long SAMPLE_MS = 1000;
+    private static final int MAX_PENDING_COMMANDS = 64;
+    static final int MAX_BATCH_ACTIONS = 32;
+    // After a seek is applied, later seeks (a held key, a scrub) are collected this long.
+    private static final long SEEK_WINDOW_MS = 150;
 
+    /** Values read from the player on the main thread; safe to share once built. */
+    static final class State {
+        static final State INACTIVE = new State(false, "", false, 0, 0, 0, 0, 0);
+
+        final boolean active;
+        final String title;
+        final boolean playing;
+        final long positionMs;
+        final long durationMs;
+        final int volume;
+        final long sampledAt;
+        final long lastCommandId;
+
+        State(
+                boolean active,
+                String title,
+                boolean playing,
+                long positionMs,
+                long durationMs,
+                int volume,
+                long sampledAt,
+                long lastCommandId) {
+            this.active = active;
+            this.title = title != null ? title : "";
+            this.playing = playing;
+            this.positionMs = positionMs;
+            this.durationMs = durationMs;
+            this.volume = volume;
+            this.sampledAt = sampledAt;
+            this.lastCommandId = lastCommandId;
+        }
+
+        /** Position at {@code now} (elapsedRealtime), extrapolated while playing. */
+        long positionAt(long now) {
+            if (!playing || now <= sampledAt) return positionMs;
+            long p = positionMs + (now - sampledAt);
+            return durationMs > 0 ? Math.min(p, durationMs) : p;
+        }
+
+        JSONObject toJson() {
+            if (!active) return inactive();
+            try {
+                JSONObject o = new JSONObject();
+                o.put("ok", true);
+                o.put("active", true);
+                o.put("title", title);
+                o.put("playing", playing);
+                o.put("positionMs", positionAt(SystemClock.elapsedRealtime()));
+                o.put("durationMs", durationMs);
+                o.put("volume", volume);
+                o.put("lastCommandId", lastCommandId);
+                return o;
+            } catch (JSONException e) {
+                return jsonError("json error");
+            }
+        }
+    }
+
+    interface StatusCallback {
+        /** Called on the main thread once the command has been applied. */
+        void onStatus(JSONObject status);
+    }
+
+    interface SnapshotListener {
+        /** Called on the main thread for every published snapshot. */
+        void onSnapshot(State state);
+    }
+
+    /** One queued control or batch; its actions are applied together in one main-thread pass. */
+    private static final class Command {
+        final long id;
+        final String[] actions;
+        final long[] values;
+        final StatusCallback callback;
+
+        Command(long id, String[] actions, long[] values, StatusCallback callback) {
+            this.id = id;
+            this.actions = actions;
+            this.values = values;
+            this.callback = callback;
+        }
+
+        boolean onlySeeks() {
+            for (String a : actions) {
+                if (!isSeek(a)) return false;
+            }
+            return true;
+        }
+    }
+
+    private static volatile State snapshot = State.INACTIVE;
+    private static final CopyOnWriteArrayList<SnapshotListener> listeners =
+            new CopyOnWriteArrayList<>();
+
+    private static final ConcurrentLinkedQueue<Command> commands = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pending = new AtomicInteger();
+    private static final AtomicBoolean drainPosted = new AtomicBoolean();
+    // uptimeMillis until which seeks are folded; written only by the thread that wins drainPosted.
+    private static volatile long seekWindowEnd;
+    private static final AtomicLong commandIds = new AtomicLong();
+    private static final StripedCounter rejected = new StripedCounter();
+    private static final Runnable DRAIN = PlaybackSession::drain;
+    private static final Runnable SAMPLER =
+            new Runnable() {
+                @Override
+                public void run() {
+                    if (player == null) return;
+                    publish();
+                    MAIN.postDelayed(this, SAMPLE_MS);
+                }
+            };
+    private static final Player.Listener PLAYER_LISTENER =
+            new Player.Listener() {
+                @Override
+                public void onEvents(Player p, Player.Events events) {
+                    publish();
+                }
+            };
+
+    // Main thread only.
     private static SimpleExoPlayer player;
     private static String title = "";
+    private static long lastApplied;
 
     private PlaybackSession() {}
 
+    /** Main thread. */
     public static void attach(SimpleExoPlayer p, String titleText) {
         if (p == null) return;
-        synchronized (LOCK) {
-            player = p;
-            title = titleText != null ? titleText : "";
-        }
+        if (player != null) player.removeListener(PLAYER_LISTENER);
+        player = p;
+        title = titleText != null ? titleText : "";
+        p.addListener(PLAYER_LISTENER);
+        MAIN.removeCallbacks(SAMPLER);
+        SAMPLER.run();
     }
 
+    /** Main thread. */
     public static void detach(SimpleExoPlayer p) {
-        synchronized (LOCK) {
-            if (player == p) {
-                player = null;
-                title = "";
-            }
-        }
+        if (p == null || player != p) return;
+        p.removeListener(PLAYER_LISTENER);
+        MAIN.removeCallbacks(SAMPLER);
+        player = null;
+        title = "";
+        publish();
+    }
+
+    /** Latest published snapshot; never blocks. */
+    static State snapshot() {
+        return snapshot;
+    }
+
+    static void addListener(SnapshotListener l) {
+        if (l != null) listeners.addIfAbsent(l);
+    }
+
+    static void removeListener(SnapshotListener l) {
+        listeners.remove(l);
     }
 
     public static JSONObject status() {
-        final JSONObject[] out = new JSONObject[1];
-        final CountDownLatch latch = new CountDownLatch(1);
-        MAIN.post(
-                () -> {
-                    out[0] = buildStatusLocked();
-                    latch.countDown();
-                });
-        try {
-            // Best-effort: remote calls should respond quickly.
-            latch.await(250, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException ignored) {
-        }
-        JSONObject v = out[0];
-        return v != null ? v : jsonError("timeout");
+        return snapshot.toJson();
     }
 
+    /**
+     * Queues {@code action} and returns at once with the current status plus {@code commandId};
+     * published snapshots report it as {@code lastCommandId} once it has been applied.
+     */
     public static JSONObject control(String action, long value) {
-        final JSONObject[] out = new JSONObject[1];
-        final CountDownLatch latch = new CountDownLatch(1);
-        final String a = action != null ? action.trim().toLowerCase() : "";
-        MAIN.post(
-                () -> {
-                    out[0] = applyControlLocked(a, value);
-                    latch.countDown();
-                });
+        String a = normalizeAction(action);
+        if (a == null) return jsonError("unknown action");
+        return submit(new String[] {a}, new long[] {value});
+    }
+
+    /**
+     * Queues several actions as one command: they are applied back to back in a single main-thread
+     * pass with no other command in between, and a single snapshot is published afterwards. Nothing
+     * is queued when any action is unknown.
+     */
+    static JSONObject controlBatch(List<String> actions, List<Long> values) {
+        int n = actions != null ? actions.size() : 0;
+        if (n == 0) return jsonError("empty batch");
+        if (n > MAX_BATCH_ACTIONS) return jsonError("too many actions");
+        String[] a = new String[n];
+        long[] v = new long[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = normalizeAction(actions.get(i));
+            if (a[i] == null) return jsonError("unknown action at " + i);
+            Long value = values != null && i < values.size() ? values.get(i) : null;
+            v[i] = value != null ? value : 0;
+        }
+        return submit(a, v);
+    }
+
+    private static JSONObject submit(String[] actions, long[] values) {
+        State s = snapshot;
+        if (!s.active) return inactive();
+        long id = enqueue(actions, values, null);
+        if (id < 0) return jsonError("busy");
+        JSONObject o = s.toJson();
         try {
-            latch.await(600, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException ignored) {
+            o.put("commandId", id);
+        } catch (JSONException ignored) {
+        }
+        return o;
+    }
+
+    /**
+     * Like {@link #control}, but {@code cb} also receives the status right after the command was
+     * applied. Rejected commands are reported to {@code cb} immediately on the calling thread.
+     */
+    static void controlAsync(String action, long value, StatusCallback cb) {
+        String a = normalizeAction(action);
+        if (a == null) {
+            cb.onStatus(jsonError("unknown action"));
+            return;
+        }
+        if (enqueue(new String[] {a}, new long[] {value}, cb) < 0) cb.onStatus(jsonError("busy"));
+    }
+
+    /** Commands queued since start. */
+    static long submittedCommands() {
+        return commandIds.get();
+    }
+
+    /** Commands refused with "busy" because the queue was full. */
+    static long rejectedCommands() {
+        return rejected.sum();
+    }
+
+    static int pendingCommands() {
+        return pending.get();
+    }
+
+    private static long enqueue(String[] actions, long[] values, StatusCallback cb) {
+        if (pending.incrementAndGet() > MAX_PENDING_COMMANDS) {
+            pending.decrementAndGet();
+            rejected.increment();
+            return -1;
+        }
+        long id = commandIds.incrementAndGet();
+        Command c = new Command(id, actions, values, cb);
+        commands.add(c);
+        if (!c.onlySeeks()) {
+            // Anything else is applied right away, together with seeks already waiting.
+            MAIN.post(DRAIN);
+        } else if (drainPosted.compareAndSet(false, true)) {
+            // Leading edge: a seek outside a window runs now and opens one; inside one, it runs at
+            // the window's end and opens the next. The window is stamped before the drain clears
+            // drainPosted, so a seek arriving during that drain is folded, not run at once.
+            long now = SystemClock.uptimeMillis();
+            long wait = seekWindowEnd - now;
+            if (wait > 0) {
+                seekWindowEnd += SEEK_WINDOW_MS;
+                MAIN.postDelayed(DRAIN, wait);
+            } else {
+                seekWindowEnd = now + SEEK_WINDOW_MS;
+                MAIN.post(DRAIN);
+            }
         }
-        JSONObject v = out[0];
-        return v != null ? v : jsonError("timeout");
+        return id;
     }
 
-    private static JSONObject applyControlLocked(String action, long value) {
-        SimpleExoPlayer p;
-        synchronized (LOCK) {
-            p = player;
+    /**
+     * Main thread: applies everything queued so far, then publishes once. Consecutive seeks are
+     * folded into one target; any other action first flushes the pending seek so order is kept.
+     */
+    private static void drain() {
+        drainPosted.set(false);
+        List<Command> batch = null;
+        Command c;
+        while ((c = commands.poll()) != null) {
+            pending.decrementAndGet();
+            if (batch == null) batch = new ArrayList<>();
+            batch.add(c);
         }
+        if (batch == null) return;
+
+        JSONObject[] errors = new JSONObject[batch.size()];
+        SeekFold seek = new SeekFold();
+        for (int i = 0; i < batch.size(); i++) {
+            Command cmd = batch.get(i);
+            for (int k = 0; k < cmd.actions.length; k++) {
+                String action = cmd.actions[k];
+                if (isSeek(action)) {
+                    seek.add(action, cmd.values[k], i);
+                    continue;
+                }
+                seek.flush(errors);
+                JSONObject error = applyControl(action, cmd.values[k]);
+                if (error != null && errors[i] == null) errors[i] = error;
+            }
+            lastApplied = cmd.id;
+        }
+        seek.flush(errors);
+        publish();
+
+        for (int i = 0; i < batch.size(); i++) {
+            Command cmd = batch.get(i);
+            if (cmd.callback == null) continue;
+            JSONObject out = errors[i] != null ? errors[i] : snapshot.toJson();
+            try {
+                out.put("commandId", cmd.id);
+            } catch (JSONException ignored) {
+            }
+            cmd.callback.onStatus(out);
+        }
+    }
+
+    /** Pending seek built from consecutive seek actions; main thread only. */
+    private static final class SeekFold {
+        boolean pending;
+        boolean absolute;
+        long target;
+        int owner;
+
+        void add(String action, long value, int commandIndex) {
+            if ("seektoms".equals(action)) {
+                absolute = true;
+                target = value;
+            } else if (pending) {
+                target += value;
+            } else {
+                absolute = false;
+                target = value;
+            }
+            pending = true;
+            owner = commandIndex;
+        }
+
+        void flush(JSONObject[] errors) {
+            if (!pending) return;
+            pending = false;
+            JSONObject error = applyControl(absolute ? "seektoms" : "seekbyms", target);
+            if (error != null && errors[owner] == null) errors[owner] = error;
+        }
+    }
+
+    private static boolean isSeek(String action) {
+        return "seekbyms".equals(action) || "seektoms".equals(action);
+    }
+
+    /** Canonical action name, or null when the action is not supported. */
+    private static String normalizeAction(String action) {
+        String a = action != null ? action.trim().toLowerCase() : "";
+        if ("toggle".equals(a) || "play".equals(a) || "pause".equals(a) || "stop".equals(a)) return a;
+        if ("seekbyms".equals(a) || "seek_by_ms".equals(a) || "seekby".equals(a)) return "seekbyms";
+        if ("seektoms".equals(a) || "seek_to_ms".equals(a)) return "seektoms";
+        if ("volume".equals(a)) return a;
+        return null;
+    }
+
+    /** Main thread. Returns null on success or an error object. */
+    private static JSONObject applyControl(String action, long value) {
+        SimpleExoPlayer p = player;
         if (p == null) return inactive();
 
         try {
@@ -86,7 +400,7 @@ public final class PlaybackSession {
             } else if ("stop".equals(action)) {
                 p.stop();
                 p.setPlayWhenReady(false);
-            } else if ("seekbyms".equals(action) || "seek_by_ms".equals(action) || "seekby".equals(action)) {
+            } else if ("seekbyms".equals(action)) {
                 long pos = p.getCurrentPosition();
                 long dur = p.getDuration();
                 if (dur == C.TIME_UNSET) dur = -1;
@@ -94,54 +408,49 @@ public final class PlaybackSession {
                 if (next < 0) next = 0;
                 if (dur > 0 && next > dur) next = dur;
                 p.seekTo(next);
-            } else if ("seektoms".equals(action) || "seek_to_ms".equals(action)) {
+            } else if ("seektoms".equals(action)) {
                 long dur = p.getDuration();
                 if (dur == C.TIME_UNSET) dur = -1;
                 long next = value;
                 if (next < 0) next = 0;
                 if (dur > 0 && next > dur) next = dur;
                 p.seekTo(next);
-            } else {
-                return jsonError("unknown action");
+            } else if ("volume".equals(action)) {
+                p.setVolume(Math.max(0, Math.min(100, value)) / 100f);
             }
-            return buildStatusLocked();
+            return null;
         } catch (Exception e) {
             return jsonError(String.valueOf(e.getMessage()));
         }
     }
 
-    private static JSONObject buildStatusLocked() {
-        SimpleExoPlayer p;
-        String t;
-        synchronized (LOCK) {
-            p = player;
-            t = title;
+    /** Main thread: reads the player into a new snapshot and hands it to listeners. */
+    private static void publish() {
+        State s = sample();
+        snapshot = s;
+        for (SnapshotListener l : listeners) {
+            l.onSnapshot(s);
         }
-        if (p == null) return inactive();
+    }
+
+    private static State sample() {
+        SimpleExoPlayer p = player;
+        if (p == null) return State.INACTIVE;
 
         long pos = 0;
         long dur = 0;
         boolean playing = false;
+        int volume = 100;
         try {
             pos = p.getCurrentPosition();
             long d = p.getDuration();
             dur = d == C.TIME_UNSET ? 0 : Math.max(0, d);
-            playing = p.getPlayWhenReady() && p.getPlaybackState() == com.google.android.exoplayer2.Player.STATE_READY;
+            playing = p.getPlayWhenReady() && p.getPlaybackState() == Player.STATE_READY;
+            volume = Math.round(p.getVolume() * 100f);
         } catch (Exception ignored) {
         }
-
-        try {
-            JSONObject o = new JSONObject();
-            o.put("ok", true);
-            o.put("active", true);
-            o.put("title", t != null ? t : "");
-            o.put("playing", playing);
-            o.put("positionMs", pos);
-            o.put("durationMs", dur);
-            return o;
-        } catch (JSONException e) {
-            return jsonError("json error");
-        }
+        long now = SystemClock.elapsedRealtime();
+        return new State(true, title, playing, pos, dur, volume, now, lastApplied);
     }
 
     private static JSONObject inactive() {
@@ -166,4 +475,3 @@ public final class PlaybackSession {
         }
     }
 }
-
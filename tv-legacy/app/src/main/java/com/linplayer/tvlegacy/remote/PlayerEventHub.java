@@ -0,0 +1,180 @@
+package com.linplayer.tvlegacy.remote;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Publisher behind {@code /api/player/events}. It listens to the snapshots PlaybackSession already
+ * publishes, turns differences into events and encodes each event once; all streams then share the
+ * same bytes. State changes go out as they are published, position ticks at each subscriber's rate
+ * from a single timer, so more clients add no player reads.
+ */
+final class PlayerEventHub implements PlaybackSession.SnapshotListener {
+    static final int DEFAULT_TICK_MS = 1000;
+    private static final int MIN_TICK_MS = 250;
+    private static final int MAX_TICK_MS = 10000;
+    // A position this far off from where the previous snapshot predicts counts as a seek.
+    private static final long SEEK_SLACK_MS = 1500;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Handler MAIN = new Handler(Looper.getMainLooper());
+    private static final ByteBuffer HEARTBEAT = ascii(": ping\n\n");
+
+    private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final Runnable ticker = this::tick;
+    private final Runnable primer = this::prime;
+    private boolean running;
+    private volatile boolean closed;
+
+    // Main thread only.
+    private PlaybackSession.State last;
+
+    /** Stream owner for one client that wants position ticks every {@code tickMs}. */
+    NioHttpEngine.StreamHandler subscriber(int tickMs) {
+        if (tickMs <= 0) tickMs = DEFAULT_TICK_MS;
+        return new Subscriber(Math.max(MIN_TICK_MS, Math.min(MAX_TICK_MS, tickMs)));
+    }
+
+    void close() {
+        closed = true;
+        for (Subscriber s : subscribers) {
+            if (s.stream != null) s.stream.close();
+        }
+        subscribers.clear();
+    }
+
+    private void add(Subscriber s) {
+        if (closed) {
+            s.stream.close();
+            return;
+        }
+        boolean start;
+        synchronized (this) {
+            subscribers.add(s);
+            start = !running;
+            running = true;
+        }
+        // The newcomer gets a full status right away instead of waiting for the next change.
+        MAIN.post(primer);
+        if (start) {
+            MAIN.post(
+                    () -> {
+                        last = PlaybackSession.snapshot();
+                        PlaybackSession.addListener(this);
+                        tick();
+                    });
+        }
+    }
+
+    private void prime() {
+        ByteBuffer status = null;
+        for (Subscriber s : subscribers) {
+            if (s.primed) continue;
+            if (status == null) status = event("status", PlaybackSession.snapshot());
+            s.primed = true;
+            s.send(status, SystemClock.elapsedRealtime());
+        }
+    }
+
+    @Override
+    public void onSnapshot(PlaybackSession.State s) {
+        PlaybackSession.State prev = last;
+        last = s;
+        String name = prev != null ? classify(prev, s) : null;
+        if (name == null) return;
+        ByteBuffer change = event(name, s);
+        long now = SystemClock.elapsedRealtime();
+        for (Subscriber sub : subscribers) {
+            if (sub.primed) sub.send(change, now);
+        }
+    }
+
+    private void tick() {
+        synchronized (this) {
+            if (closed || subscribers.isEmpty()) {
+                running = false;
+                PlaybackSession.removeListener(this);
+                last = null;
+                return;
+            }
+        }
+        long period = MAX_TICK_MS;
+        for (Subscriber sub : subscribers) {
+            period = Math.min(period, sub.tickMs);
+        }
+        PlaybackSession.State s = PlaybackSession.snapshot();
+        if (s.playing) {
+            long now = SystemClock.elapsedRealtime();
+            ByteBuffer tick = null;
+            for (Subscriber sub : subscribers) {
+                if (!sub.primed || now - sub.lastSentAt < sub.tickMs - period / 2) continue;
+                if (tick == null) tick = event("tick", s);
+                sub.send(tick, now);
+            }
+        }
+        MAIN.postDelayed(ticker, period);
+    }
+
+    /** Event name for what changed between two snapshots, or null when only time went by. */
+    private static String classify(PlaybackSession.State prev, PlaybackSession.State s) {
+        if (prev.active != s.active || !prev.title.equals(s.title)) return "title";
+        if (!s.active) return null;
+        if (prev.playing != s.playing) return s.playing ? "play" : "pause";
+        if (Math.abs(s.positionMs - prev.positionAt(s.sampledAt)) > SEEK_SLACK_MS) return "seek";
+        if (prev.durationMs != s.durationMs || prev.volume != s.volume) return "status";
+        return null;
+    }
+
+    private static ByteBuffer event(String name, PlaybackSession.State s) {
+        String text = "event: " + name + "\ndata: " + s.toJson().toString() + "\n\n";
+        return ByteBuffer.wrap(text.getBytes(UTF8)).asReadOnlyBuffer();
+    }
+
+    private static ByteBuffer ascii(String s) {
+        return ByteBuffer.wrap(s.getBytes(UTF8)).asReadOnlyBuffer();
+    }
+
+    private final class Subscriber implements NioHttpEngine.StreamHandler {
+        final int tickMs;
+        volatile NioHttpEngine.Stream stream;
+        // Main thread only.
+        boolean primed;
+        long lastSentAt;
+
+        Subscriber(int tickMs) {
+            this.tickMs = tickMs;
+        }
+
+        void send(ByteBuffer event, long now) {
+            lastSentAt = now;
+            if (!stream.send(event)) subscribers.remove(this);
+        }
+
+        @Override
+        public void onOpen(NioHttpEngine.Stream stream) {
+            this.stream = stream;
+            add(this);
+        }
+
+        @Override
+        public void onData(NioHttpEngine.Stream stream, ByteBuffer in) {
+            // Event streams are one-way; ignore anything the client sends.
+            in.position(in.limit());
+        }
+
+        @Override
+        public void onIdle(NioHttpEngine.Stream stream) {
+            // A comment line keeps proxies from timing out and surfaces dead peers as write errors.
+            stream.send(HEARTBEAT);
+        }
+
+        @Override
+        public void onClosed(NioHttpEngine.Stream stream) {
+            subscribers.remove(this);
+        }
+    }
+}
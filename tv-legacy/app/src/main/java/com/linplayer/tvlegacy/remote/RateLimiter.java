@@ -0,0 +1,111 @@
+package com.linplayer.tvlegacy.remote;
+
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Token buckets per client address, so one phone polling or retrying in a tight loop cannot take
+ * CPU from playback. Reads and control commands have separate budgets; failed token checks draw
+ * from a third, small one, and a client that has used it up is refused everything until it refills.
+ */
+final class RateLimiter {
+    static final int READ = 0;
+    static final int CONTROL = 1;
+    private static final int AUTH_FAILURES = 2;
+
+    // {burst, tokens per second} per budget. Reads allow a page load plus ~1 s polling from a
+    // few tabs; control allows held-down seek buttons; five wrong tokens, then one per 10 s.
+    private static final double[][] BUDGETS = {{40, 20}, {30, 15}, {5, 0.1}};
+
+    private static final int MAX_CLIENTS = 64;
+    private static final long IDLE_NANOS = 60 * 1000000000L;
+
+    private final ConcurrentHashMap<InetAddress, Client> clients = new ConcurrentHashMap<>();
+    // Shared by whoever arrives while the table is full of active clients.
+    private final Client overflow = new Client(System.nanoTime());
+    final StripedCounter limited = new StripedCounter();
+    final StripedCounter authFailures = new StripedCounter();
+    // Off only in the JVM load generator, whose clients all share one loopback address.
+    volatile boolean enabled = true;
+
+    /** Takes a token from {@code budget}: 0 when the request may run, else seconds to wait. */
+    int admit(InetAddress address, int budget) {
+        if (address == null || !enabled) return 0;
+        long now = System.nanoTime();
+        Client c = client(address, now);
+        int wait;
+        synchronized (c) {
+            c.lastSeen = now;
+            wait = c.buckets[AUTH_FAILURES].waitForToken(now);
+            if (wait == 0) wait = c.buckets[budget].take(now);
+        }
+        if (wait > 0) limited.increment();
+        return wait;
+    }
+
+    void authFailed(InetAddress address) {
+        authFailures.increment();
+        if (address == null) return;
+        long now = System.nanoTime();
+        Client c = client(address, now);
+        synchronized (c) {
+            c.buckets[AUTH_FAILURES].take(now);
+        }
+    }
+
+    private Client client(InetAddress address, long now) {
+        Client c = clients.get(address);
+        if (c != null) return c;
+        if (clients.size() >= MAX_CLIENTS) {
+            for (Iterator<Client> it = clients.values().iterator(); it.hasNext(); ) {
+                if (now - it.next().lastSeen > IDLE_NANOS) it.remove();
+            }
+            if (clients.size() >= MAX_CLIENTS) return overflow;
+        }
+        Client fresh = new Client(now);
+        c = clients.putIfAbsent(address, fresh);
+        return c != null ? c : fresh;
+    }
+
+    private static final class Client {
+        final Bucket[] buckets = new Bucket[BUDGETS.length];
+        volatile long lastSeen;
+
+        Client(long now) {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new Bucket(BUDGETS[i][0], BUDGETS[i][1], now);
+            }
+            lastSeen = now;
+        }
+    }
+
+    /** Guarded by the owning client. */
+    private static final class Bucket {
+        final double capacity;
+        final double perSecond;
+        double tokens;
+        long updated;
+
+        Bucket(double capacity, double perSecond, long now) {
+            this.capacity = capacity;
+            this.perSecond = perSecond;
+            this.tokens = capacity;
+            this.updated = now;
+        }
+
+        int take(long now) {
+            int wait = waitForToken(now);
+            if (wait == 0) tokens -= 1;
+            return wait;
+        }
+
+        /** 0 when a token is available, else whole seconds until one is. */
+        int waitForToken(long now) {
+            tokens = Math.min(capacity, tokens + (now - updated) / 1e9 * perSecond);
+            updated = now;
+            if (tokens >= 1) return 0;
+            return (int) Math.max(1, Math.ceil((1 - tokens) / perSecond));
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.linplayer.tvlegacy.remote;
 
+import android.app.Application;
 import android.content.Context;
 import com.linplayer.tvlegacy.AppPrefs;
 import java.util.List;
@@ -11,6 +12,11 @@ public final class RemoteControl {
 
     private RemoteControl() {}
 
+    /** Called once from the application so remote keys know which activity is in front. */
+    public static void install(Application app) {
+        KeyInjector.track(app);
+    }
+
     public static RemoteInfo ensureStarted(Context context) {
         if (context == null) return new RemoteInfo(0, "", java.util.Collections.emptyList());
         Context appContext = context.getApplicationContext();
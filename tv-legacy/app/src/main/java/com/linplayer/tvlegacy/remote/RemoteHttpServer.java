@@ -1,45 +1,45 @@
 package com.linplayer.tvlegacy.remote;
 
 import android.content.Context;
+import android.util.JsonWriter;
 import com.linplayer.tvlegacy.AppPrefs;
 import com.linplayer.tvlegacy.BuildConfig;
 import com.linplayer.tvlegacy.ProxyService;
-import com.linplayer.tvlegacy.R;
 import com.linplayer.tvlegacy.servers.ServerConfig;
 import com.linplayer.tvlegacy.servers.ServerStore;
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.URLDecoder;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
 final class RemoteHttpServer {
     private static final Charset UTF8 = Charset.forName("UTF-8");
+    // Bulk imports may carry hundreds of servers; everything else keeps the router's defaults.
+    private static final int MAX_IMPORT_BODY = 1024 * 1024;
 
     private final Context appContext;
     private volatile boolean running;
-    private ServerSocket serverSocket;
-    private Thread acceptThread;
+    private NioHttpEngine engine;
     private int port;
     private String token = "";
-    private volatile String cachedIndexHtml;
+    private final StaticAssets assets;
+    private final RemoteRouter router;
+    private PlayerEventHub events;
+    private KeyChannel keys;
+    private int keyPort;
+    private volatile RemoteMetrics metrics;
 
     RemoteHttpServer(Context context) {
         this.appContext = context.getApplicationContext();
+        this.assets = new StaticAssets(appContext);
+        this.router = buildRoutes();
     }
 
     boolean isRunning() {
@@ -50,6 +50,16 @@ final class RemoteHttpServer {
         return port;
     }
 
+    /** UDP port of the key channel, 0 when it is not running. */
+    int getKeyPort() {
+        return keyPort;
+    }
+
+    /** Rate limiting is on by default; the load generator in tools/remote-bench turns it off. */
+    void setRateLimited(boolean on) {
+        router.limiter.enabled = on;
+    }
+
     String getToken() {
         return token != null ? token : "";
     }
@@ -58,337 +68,321 @@ final class RemoteHttpServer {
         if (running) return;
         this.token = token != null ? token.trim() : "";
 
-        ServerSocket ss = null;
-        int chosenPort = 0;
+        NioHttpEngine e =
+                new NioHttpEngine(
+                        router::dispatch,
+                        router::priority,
+                        router::maxBody,
+                        router::retryAfter,
+                        "tv-legacy-remote-http");
+        KeyChannel k = new KeyChannel(router.limiter);
+        metrics = new RemoteMetrics(e, router, k);
+        int chosenPort;
         try {
-            ss = new ServerSocket();
-            ss.setReuseAddress(true);
-            int p = preferredPort > 0 ? preferredPort : 0;
-            ss.bind(new InetSocketAddress(InetAddress.getByName("0.0.0.0"), p));
-            chosenPort = ss.getLocalPort();
-        } catch (IOException e) {
-            closeQuietly(ss);
+            chosenPort = e.start(preferredPort > 0 ? preferredPort : 0);
+        } catch (IOException ex) {
             try {
-                ss = new ServerSocket(0);
-                ss.setReuseAddress(true);
-                chosenPort = ss.getLocalPort();
-            } catch (IOException ex) {
-                closeQuietly(ss);
+                chosenPort = e.start(0);
+            } catch (IOException ex2) {
                 return;
             }
         }
 
-        serverSocket = ss;
+        // Same port number as HTTP when free, so clients only need to know one.
+        int chosenKeyPort;
+        try {
+            chosenKeyPort = this.token.isEmpty() ? 0 : k.start(this.token, chosenPort);
+        } catch (IOException ex) {
+            chosenKeyPort = 0;
+        }
+
+        events = new PlayerEventHub();
+        engine = e;
+        keys = chosenKeyPort > 0 ? k : null;
         port = chosenPort;
+        keyPort = chosenKeyPort;
         running = true;
-        acceptThread =
-                new Thread(
-                        () -> {
-                            acceptLoop();
-                        },
-                        "tv-legacy-remote-http");
-        acceptThread.setDaemon(true);
-        acceptThread.start();
     }
 
     void stop() {
         running = false;
-        closeQuietly(serverSocket);
-        serverSocket = null;
+        NioHttpEngine e = engine;
+        engine = null;
+        if (e != null) e.stop();
+        KeyChannel k = keys;
+        keys = null;
+        if (k != null) k.stop();
+        PlayerEventHub h = events;
+        events = null;
+        if (h != null) h.close();
         port = 0;
+        keyPort = 0;
         token = "";
-
-        Thread t = acceptThread;
-        acceptThread = null;
-        if (t != null) {
-            try {
-                t.join(800);
-            } catch (InterruptedException ignored) {
-            }
-        }
     }
 
-    private void acceptLoop() {
-        ServerSocket ss = serverSocket;
-        if (ss == null) return;
-        while (running) {
-            Socket socket = null;
-            try {
-                socket = ss.accept();
-                Socket s = socket;
-                Thread t =
-                        new Thread(
-                                () -> {
-                                    handleConnection(s);
-                                },
-                                "tv-legacy-remote-http-conn");
-                t.setDaemon(true);
-                t.start();
-            } catch (IOException e) {
-                closeQuietly(socket);
-                if (!running) break;
-            }
+    private RemoteRouter buildRoutes() {
+        RemoteRouter r = new RemoteRouter(this::checkToken);
+        int json = RemoteRouter.JSON_BODY | RemoteRouter.AUTH;
+        int control = NioHttpEngine.PRIORITY_CONTROL;
+        int bulk = NioHttpEngine.PRIORITY_BULK;
+        int normal = NioHttpEngine.PRIORITY_DEFAULT;
+        r.add("GET", "/", 0, normal, this::serveAsset);
+        r.add("GET", "/index.html", 0, normal, this::serveAsset);
+        r.add("GET", "/api/info", RemoteRouter.AUTH, normal, this::info);
+        r.add("GET", "/api/metrics", RemoteRouter.AUTH, normal, this::metrics);
+        r.add("POST", "/api/addServer", json, bulk, this::addServer);
+        r.add("POST", "/api/bulkAddServers", json, bulk, MAX_IMPORT_BODY, this::bulkAddServers);
+        r.add(
+                "POST",
+                "/api/bulkAddServers/text",
+                RemoteRouter.AUTH,
+                bulk,
+                MAX_IMPORT_BODY,
+                this::bulkAddServersText);
+        r.add("POST", "/api/setProxySettings", json, bulk, this::setProxySettings);
+        r.add("GET", "/api/player/status", RemoteRouter.AUTH, control, this::playerStatus);
+        r.add("POST", "/api/player/control", json, control, this::playerControl);
+        r.add("POST", "/api/player/batch", json, control, this::playerBatch);
+        r.add("GET", "/api/player/events", RemoteRouter.AUTH, control, this::playerEvents);
+        r.add("GET", "/api/player/ws", RemoteRouter.AUTH, control, this::playerSocket);
+        return r;
+    }
+
+    private void serveAsset(RemoteRouter.Call call) {
+        StaticAssets.Asset asset = assets.get(call.request.path());
+        if (asset == null) {
+            HttpResponses.writePlain(call.out, 404, "not found");
+            return;
         }
-    }
-
-    private void handleConnection(Socket socket) {
-        if (socket == null) return;
-        try (Socket s = socket) {
-            s.setSoTimeout(7000);
-            InputStream rawIn = s.getInputStream();
-            OutputStream out = s.getOutputStream();
-
-            BufferedInputStream in = new BufferedInputStream(rawIn);
-            String requestLine = readLine(in);
-            if (requestLine == null || requestLine.trim().isEmpty()) return;
-
-            String[] parts = requestLine.split(" ");
-            if (parts.length < 2) {
-                writePlain(out, 400, "bad request");
-                return;
-            }
-            String method = parts[0].trim().toUpperCase();
-            String fullPath = parts[1].trim();
-
-            Map<String, String> headers = new HashMap<>();
-            String line;
-            while ((line = readLine(in)) != null) {
-                if (line.isEmpty()) break;
-                int idx = line.indexOf(':');
-                if (idx <= 0) continue;
-                String k = line.substring(0, idx).trim().toLowerCase();
-                String v = line.substring(idx + 1).trim();
-                headers.put(k, v);
-            }
-
-            int contentLength = parseInt(headers.get("content-length"), 0);
-            byte[] bodyBytes = contentLength > 0 ? readBytes(in, contentLength) : new byte[0];
-            String body = bodyBytes.length > 0 ? new String(bodyBytes, UTF8) : "";
-
-            int q = fullPath.indexOf('?');
-            String path = q >= 0 ? fullPath.substring(0, q) : fullPath;
-            String query = q >= 0 ? fullPath.substring(q + 1) : "";
-            Map<String, String> queryParams = parseQuery(query);
-
-            route(out, method, path, queryParams, body);
-        } catch (Exception ignored) {
-            // ignore
+        writeAsset(call.out, call.request, asset);
+    }
+
+    private void info(RemoteRouter.Call call) throws JSONException {
+        JSONObject resp = new JSONObject();
+        resp.put("ok", true);
+        JSONObject app = new JSONObject();
+        app.put("name", "LinPlayer TV Legacy");
+        app.put("version", BuildConfig.VERSION_NAME);
+        resp.put("app", app);
+
+        ServerConfig active = ServerStore.getActive(appContext);
+        JSONObject server = new JSONObject();
+        server.put("activeServerId", active != null ? active.id : "");
+        server.put("activeServerName", active != null ? active.effectiveName() : "");
+        server.put("activeServerBaseUrl", active != null ? active.baseUrl : "");
+        server.put("activeServerType", active != null ? active.type : "");
+        resp.put("server", server);
+
+        JSONObject proxy = new JSONObject();
+        proxy.put("enabled", AppPrefs.isProxyEnabled(appContext));
+        proxy.put("subscriptionUrl", AppPrefs.getSubscriptionUrl(appContext));
+        proxy.put("status", AppPrefs.getLastStatus(appContext));
+        resp.put("proxy", proxy);
+
+        JSONObject remote = new JSONObject();
+        remote.put("keyPort", keyPort);
+        KeyChannel k = keys;
+        // Unsigned, as the datagrams carry it.
+        remote.put("keyEpoch", k != null ? k.epoch() & 0xffffffffL : 0);
+        resp.put("remote", remote);
+
+        HttpResponses.writeJson(call.out, resp);
+    }
+
+    /** JSON by default; {@code format=prometheus} for the text exposition format. */
+    private void metrics(RemoteRouter.Call call) throws JSONException {
+        RemoteMetrics m = metrics;
+        if ("prometheus".equals(call.request.query("format"))) {
+            byte[] text = m.toPrometheus().getBytes(UTF8);
+            String type = "text/plain; version=0.0.4; charset=utf-8";
+            HttpResponses.writeBytes(call.out, 200, type, text);
+            return;
         }
+        HttpResponses.writeJson(call.out, m.toJson());
     }
 
-    private void route(
-            OutputStream out,
-            String method,
-            String path,
-            Map<String, String> query,
-            String body) {
-        if (path == null || path.isEmpty()) path = "/";
+    private void addServer(RemoteRouter.Call call) throws JSONException {
+        JSONObject req = call.body;
+        NioHttpEngine.Response out = call.out;
+        String type = req.optString("type", "emby").trim().toLowerCase();
+        String baseUrl = normalizeBaseUrl(req.optString("baseUrl", ""));
+        String apiKey = req.optString("apiKey", req.optString("token", ""));
+        String username = req.optString("username", "");
+        String password = req.optString("password", "");
+        String displayName = req.optString("displayName", "");
+        String remark = req.optString("remark", "");
+        boolean activate = readBool(req.opt("activate"), true);
 
-        if ("GET".equals(method) && ("/".equals(path) || "/index.html".equals(path))) {
-            String html = indexHtml();
-            writeBytes(out, 200, "text/html; charset=utf-8", html.getBytes(UTF8));
+        if (baseUrl.isEmpty()) {
+            HttpResponses.writeJson(out, HttpResponses.jsonError("missing baseUrl"));
             return;
         }
-
-        if ("/api/info".equals(path)) {
-            String tokenParam = query.get("token");
-            if (!checkToken(tokenParam)) {
-                writePlain(out, 401, "unauthorized");
+        if ("webdav".equals(type)) {
+            if (username == null || username.trim().isEmpty()) {
+                HttpResponses.writeJson(out, HttpResponses.jsonError("missing username"));
                 return;
             }
-            try {
-                JSONObject resp = new JSONObject();
-                resp.put("ok", true);
-                JSONObject app = new JSONObject();
-                app.put("name", "LinPlayer TV Legacy");
-                app.put("version", BuildConfig.VERSION_NAME);
-                resp.put("app", app);
-
-                ServerConfig active = ServerStore.getActive(appContext);
-                JSONObject server = new JSONObject();
-                server.put("activeServerId", active != null ? active.id : "");
-                server.put("activeServerName", active != null ? active.effectiveName() : "");
-                server.put("activeServerBaseUrl", active != null ? active.baseUrl : "");
-                server.put("activeServerType", active != null ? active.type : "");
-                resp.put("server", server);
-
-                JSONObject proxy = new JSONObject();
-                proxy.put("enabled", AppPrefs.isProxyEnabled(appContext));
-                proxy.put("subscriptionUrl", AppPrefs.getSubscriptionUrl(appContext));
-                proxy.put("status", AppPrefs.getLastStatus(appContext));
-                resp.put("proxy", proxy);
-
-                writeBytes(out, 200, "application/json; charset=utf-8", resp.toString().getBytes(UTF8));
-            } catch (JSONException e) {
-                writePlain(out, 500, "json error");
+        } else if ("plex".equals(type)) {
+            if (apiKey == null || apiKey.trim().isEmpty()) {
+                HttpResponses.writeJson(out, HttpResponses.jsonError("missing token"));
+                return;
             }
-            return;
-        }
-
-        if ("/api/addServer".equals(path)) {
-            if (!"POST".equals(method)) {
-                writePlain(out, 405, "method not allowed");
+        } else {
+            if (apiKey == null || apiKey.trim().isEmpty()) {
+                HttpResponses.writeJson(out, HttpResponses.jsonError("missing apiKey/token"));
                 return;
             }
-            try {
-                JSONObject req = new JSONObject(body != null ? body : "");
-                String token = req.optString("token", "");
-                if (!checkToken(token)) {
-                    writeJson(out, jsonError("unauthorized"));
-                    return;
-                }
+            if (!"emby".equals(type) && !"jellyfin".equals(type)) type = "emby";
+        }
+
+        ServerConfig cfg =
+                new ServerConfig(
+                        "",
+                        type,
+                        baseUrl,
+                        apiKey,
+                        username,
+                        password,
+                        displayName,
+                        remark);
+        ServerConfig saved = ServerStore.upsert(appContext, cfg, activate);
+
+        JSONObject resp = new JSONObject();
+        resp.put("ok", true);
+        resp.put("serverId", saved != null ? saved.id : "");
+        resp.put("activeServerId", ServerStore.getActiveId(appContext));
+        HttpResponses.writeJson(out, resp);
+    }
+
+    private void bulkAddServers(RemoteRouter.Call call) throws IOException {
+        JSONObject req = call.body;
+        String text = req.optString("text", "");
+        String defaultType = req.optString("defaultType", "emby");
+        boolean activateFirst = readBool(req.opt("activateFirst"), true);
+        // One error line per bad input line: stream the result instead of building it in memory.
+        JsonWriter json = HttpResponses.beginJson(call.request, call.out);
+        if (!handleBulkAdd(new BulkReader(text, defaultType), activateFirst, json)) {
+            call.out.failed = true;
+        }
+        json.close();
+    }
+
+    /** Line-format import sent as the raw body; lines are parsed as they are read from it. */
+    private void bulkAddServersText(RemoteRouter.Call call) throws IOException {
+        HttpRequest req = call.request;
+        String defaultType = req.query("defaultType");
+        boolean activateFirst = readBool(req.query("activateFirst"), true);
+        BufferedReader lines =
+                new BufferedReader(new InputStreamReader(req.bodyStream(), UTF8));
+        JsonWriter json = HttpResponses.beginJson(req, call.out);
+        if (!handleBulkAdd(new BulkReader(lines, defaultType), activateFirst, json)) {
+            call.out.failed = true;
+        }
+        json.close();
+    }
+
+    private void setProxySettings(RemoteRouter.Call call) throws JSONException {
+        JSONObject req = call.body;
+        boolean enabled = readBool(req.opt("enabled"), false);
+        String subscriptionUrl = req.optString("subscriptionUrl", "");
+        AppPrefs.setSubscriptionUrl(appContext, subscriptionUrl);
+        AppPrefs.setProxyEnabled(appContext, enabled);
+        if (enabled) {
+            ProxyService.applyConfig(appContext);
+            ProxyService.start(appContext);
+        } else {
+            ProxyService.stop(appContext);
+        }
 
-                String type = req.optString("type", "emby").trim().toLowerCase();
-                String baseUrl = normalizeBaseUrl(req.optString("baseUrl", ""));
-                String apiKey = req.optString("apiKey", req.optString("token", ""));
-                String username = req.optString("username", "");
-                String password = req.optString("password", "");
-                String displayName = req.optString("displayName", "");
-                String remark = req.optString("remark", "");
-                boolean activate = readBool(req.opt("activate"), true);
-
-                if (baseUrl.isEmpty()) {
-                    writeJson(out, jsonError("missing baseUrl"));
-                    return;
-                }
-                if ("webdav".equals(type)) {
-                    if (username == null || username.trim().isEmpty()) {
-                        writeJson(out, jsonError("missing username"));
-                        return;
-                    }
-                } else if ("plex".equals(type)) {
-                    if (apiKey == null || apiKey.trim().isEmpty()) {
-                        writeJson(out, jsonError("missing token"));
-                        return;
-                    }
-                } else {
-                    if (apiKey == null || apiKey.trim().isEmpty()) {
-                        writeJson(out, jsonError("missing apiKey/token"));
-                        return;
-                    }
-                    if (!"emby".equals(type) && !"jellyfin".equals(type)) type = "emby";
-                }
+        JSONObject resp = new JSONObject();
+        resp.put("ok", true);
+        resp.put("enabled", AppPrefs.isProxyEnabled(appContext));
+        resp.put("subscriptionUrl", AppPrefs.getSubscriptionUrl(appContext));
+        resp.put("status", AppPrefs.getLastStatus(appContext));
+        HttpResponses.writeJson(call.out, resp);
+    }
 
-                ServerConfig cfg =
-                        new ServerConfig(
-                                "",
-                                type,
-                                baseUrl,
-                                apiKey,
-                                username,
-                                password,
-                                displayName,
-                                remark);
-                ServerConfig saved = ServerStore.upsert(appContext, cfg, activate);
-
-                JSONObject resp = new JSONObject();
-                resp.put("ok", true);
-                resp.put("serverId", saved != null ? saved.id : "");
-                resp.put("activeServerId", ServerStore.getActiveId(appContext));
-                writeJson(out, resp);
-            } catch (JSONException e) {
-                writeJson(out, jsonError("invalid json"));
-            }
-            return;
-        }
+    private void playerStatus(RemoteRouter.Call call) {
+        HttpResponses.writeJson(call.out, PlaybackSession.status());
+    }
 
-        if ("/api/bulkAddServers".equals(path)) {
-            if (!"POST".equals(method)) {
-                writePlain(out, 405, "method not allowed");
-                return;
-            }
-            try {
-                JSONObject req = new JSONObject(body != null ? body : "");
-                String token = req.optString("token", "");
-                if (!checkToken(token)) {
-                    writeJson(out, jsonError("unauthorized"));
-                    return;
-                }
+    private void playerControl(RemoteRouter.Call call) {
+        JSONObject req = call.body;
+        String action = req.optString("action", "");
+        long value = 0;
+        try {
+            value = req.has("value") ? req.getLong("value") : 0;
+        } catch (Exception ignored) {
+            value = 0;
+        }
+        HttpResponses.writeJson(call.out, PlaybackSession.control(action, value));
+    }
 
-                String text = req.optString("text", "");
-                String defaultType = req.optString("defaultType", "emby");
-                boolean activateFirst = readBool(req.opt("activateFirst"), true);
-                JSONObject resp = handleBulkAdd(text, defaultType, activateFirst);
-                writeJson(out, resp);
-            } catch (JSONException e) {
-                writeJson(out, jsonError("invalid json"));
-            }
+    private void playerBatch(RemoteRouter.Call call) {
+        JSONArray arr = call.body.optJSONArray("actions");
+        if (arr == null) {
+            HttpResponses.writeJson(call.out, HttpResponses.jsonError("missing actions"));
             return;
         }
-
-        if ("/api/setProxySettings".equals(path)) {
-            if (!"POST".equals(method)) {
-                writePlain(out, 405, "method not allowed");
-                return;
+        List<String> actions = new ArrayList<>(arr.length());
+        List<Long> values = new ArrayList<>(arr.length());
+        for (int i = 0; i < arr.length(); i++) {
+            Object item = arr.opt(i);
+            if (item instanceof JSONObject) {
+                JSONObject o = (JSONObject) item;
+                actions.add(o.optString("action", ""));
+                values.add(o.optLong("value", 0));
+            } else {
+                actions.add(item != null ? String.valueOf(item) : "");
+                values.add(0L);
             }
-            try {
-                JSONObject req = new JSONObject(body != null ? body : "");
-                String token = req.optString("token", "");
-                if (!checkToken(token)) {
-                    writeJson(out, jsonError("unauthorized"));
-                    return;
-                }
-
-                boolean enabled = readBool(req.opt("enabled"), false);
-                String subscriptionUrl = req.optString("subscriptionUrl", "");
-                AppPrefs.setSubscriptionUrl(appContext, subscriptionUrl);
-                AppPrefs.setProxyEnabled(appContext, enabled);
-                if (enabled) {
-                    ProxyService.applyConfig(appContext);
-                    ProxyService.start(appContext);
-                } else {
-                    ProxyService.stop(appContext);
-                }
+        }
+        HttpResponses.writeJson(call.out, PlaybackSession.controlBatch(actions, values));
+    }
 
-                JSONObject resp = new JSONObject();
-                resp.put("ok", true);
-                resp.put("enabled", AppPrefs.isProxyEnabled(appContext));
-                resp.put("subscriptionUrl", AppPrefs.getSubscriptionUrl(appContext));
-                resp.put("status", AppPrefs.getLastStatus(appContext));
-                writeJson(out, resp);
-            } catch (JSONException e) {
-                writeJson(out, jsonError("invalid json"));
-            }
+    private void playerEvents(RemoteRouter.Call call) {
+        PlayerEventHub h = events;
+        if (h == null) {
+            HttpResponses.writePlain(call.out, 404, "not found");
             return;
         }
-
-        if ("/api/player/status".equals(path)) {
-            String tokenParam = query.get("token");
-            if (!checkToken(tokenParam)) {
-                writePlain(out, 401, "unauthorized");
-                return;
-            }
-            writeJson(out, PlaybackSession.status());
+        int tickMs = parseInt(call.request.query("tickMs"), PlayerEventHub.DEFAULT_TICK_MS);
+        // Open-ended response: the body is the event stream itself and ends when the socket closes.
+        HttpResponses.writeHead(
+                call.out,
+                200,
+                "HTTP/1.1 200 OK\r\n"
+                        + "Content-Type: text/event-stream; charset=utf-8\r\n"
+                        + "Cache-Control: no-store\r\n"
+                        + "Connection: close\r\n"
+                        + "\r\n"
+                        + "retry: 2000\n\n");
+        call.out.upgrade(h.subscriber(tickMs));
+    }
+
+    private void playerSocket(RemoteRouter.Call call) {
+        HttpRequest request = call.request;
+        if (!request.headerContains("upgrade", "websocket")
+                || !"13".equals(request.header("sec-websocket-version"))) {
+            HttpResponses.writePlain(call.out, 426, "websocket upgrade required");
             return;
         }
-
-        if ("/api/player/control".equals(path)) {
-            if (!"POST".equals(method)) {
-                writePlain(out, 405, "method not allowed");
-                return;
-            }
-            try {
-                JSONObject req = new JSONObject(body != null ? body : "");
-                String token = req.optString("token", "");
-                if (!checkToken(token)) {
-                    writeJson(out, jsonError("unauthorized"));
-                    return;
-                }
-                String action = req.optString("action", "");
-                long value = 0;
-                try {
-                    value = req.has("value") ? req.getLong("value") : 0;
-                } catch (Exception ignored) {
-                    value = 0;
-                }
-                writeJson(out, PlaybackSession.control(action, value));
-            } catch (JSONException e) {
-                writeJson(out, jsonError("invalid json"));
-            }
+        String accept = ControlSocket.acceptKey(request.header("sec-websocket-key"));
+        if (accept == null) {
+            HttpResponses.writePlain(call.out, 400, "missing sec-websocket-key");
             return;
         }
-
-        writePlain(out, 404, "not found");
+        HttpResponses.writeHead(
+                call.out,
+                101,
+                "HTTP/1.1 101 Switching Protocols\r\n"
+                        + "Upgrade: websocket\r\n"
+                        + "Connection: Upgrade\r\n"
+                        + "Sec-WebSocket-Accept: "
+                        + accept
+                        + "\r\n"
+                        + "\r\n");
+        call.out.upgrade(new ControlSocket(router.limiter, request.remoteAddress()));
     }
 
     private boolean checkToken(String token) {
@@ -397,83 +391,170 @@ final class RemoteHttpServer {
         return !cur.isEmpty() && cur.equals(t);
     }
 
-    private JSONObject handleBulkAdd(String text, String defaultType, boolean activateFirst) {
+    /**
+     * Writes {@code {results, errors, added, ok, activeServerId}}. Each input item's result goes
+     * out as soon as it is parsed; the valid ones are then stored with a single write, and {@code
+     * ok} follows it: whether that write succeeded. {@code errors} repeats the failed results and
+     * the save failure for clients older than {@code results}. Returns {@code ok}.
+     */
+    private boolean handleBulkAdd(BulkReader reader, boolean activateFirst, JsonWriter json)
+            throws IOException {
+        List<ServerConfig> configs = new ArrayList<>();
         List<String> errors = new ArrayList<>();
-        List<ParsedServer> items = parseBulk(text, defaultType, errors);
-        int added = 0;
-        boolean activatedAny = false;
-        for (int i = 0; i < items.size(); i++) {
-            ParsedServer ps = items.get(i);
-            if (ps == null || ps.config == null) continue;
-            boolean activate = ps.activate;
-            if (!activatedAny && activateFirst && added == 0) {
-                activate = true;
-            }
-            try {
-                ServerStore.upsert(appContext, ps.config, activate);
-                added++;
-                if (activate) activatedAny = true;
-            } catch (Exception e) {
-                errors.add("save failed: " + String.valueOf(e.getMessage()));
+        int activateIndex = -1;
+        json.beginObject();
+        json.name("results").beginArray();
+        while (reader.next()) {
+            json.beginObject();
+            json.name("item").value(reader.label);
+            json.name("ok").value(reader.error == null);
+            if (reader.error != null) {
+                json.name("error").value(reader.error);
+                errors.add(reader.label + ": " + reader.error);
+            } else {
+                if (reader.server.activate || (activateFirst && configs.isEmpty())) {
+                    activateIndex = configs.size();
+                }
+                configs.add(reader.server.config);
             }
+            json.endObject();
         }
+        json.endArray();
+
+        int added = 0;
+        boolean saved = true;
         try {
-            JSONObject resp = new JSONObject();
-            resp.put("ok", true);
-            resp.put("added", added);
-            resp.put("activeServerId", ServerStore.getActiveId(appContext));
-            resp.put("errors", new JSONArray(errors));
-            return resp;
-        } catch (JSONException e) {
-            return jsonError("json error");
+            added = ServerStore.upsertAll(appContext, configs, activateIndex).size();
+        } catch (Exception e) {
+            saved = false;
+            errors.add("save failed: " + String.valueOf(e.getMessage()));
+        }
+        json.name("errors").beginArray();
+        for (String e : errors) json.value(e);
+        json.endArray();
+        json.name("added").value(added);
+        json.name("ok").value(saved);
+        json.name("activeServerId").value(ServerStore.getActiveId(appContext));
+        json.endObject();
+        return saved;
+    }
+
+    /**
+     * Walks bulk import text one item at a time: elements of a JSON array (or a single object), else
+     * lines. Nothing is split or materialized up front. A malformed JSON array falls back to line
+     * mode as long as no element has been returned yet. Over a reader it only knows lines.
+     */
+    private static final class BulkReader {
+        private final String text;
+        private final BufferedReader lines;
+        private final String defaultType;
+        private JSONTokener json;
+        private boolean single;
+        private int index;
+        private int pos;
+        private int lineNo;
+
+        String label;
+        ParsedServer server;
+        String error;
+
+        BulkReader(String text, String defaultType) {
+            String t = text != null ? text.trim() : "";
+            this.text = t;
+            this.lines = null;
+            this.defaultType = knownTypeOr(defaultType);
+            if (t.startsWith("[")) {
+                json = new JSONTokener(t);
+                json.nextClean(); // the '['
+            } else if (t.startsWith("{")) {
+                json = new JSONTokener(t);
+                single = true;
+            }
         }
-    }
 
-    private static List<ParsedServer> parseBulk(
-            String text, String defaultType, List<String> errors) {
-        String t = text != null ? text.trim() : "";
-        String def = defaultType != null ? defaultType.trim().toLowerCase() : "emby";
-        if (!isKnownType(def)) def = "emby";
+        BulkReader(BufferedReader lines, String defaultType) {
+            this.text = "";
+            this.lines = lines;
+            this.defaultType = knownTypeOr(defaultType);
+        }
 
-        if (t.isEmpty()) return Collections.emptyList();
+        private static String knownTypeOr(String type) {
+            String def = type != null ? type.trim().toLowerCase() : "emby";
+            return isKnownType(def) ? def : "emby";
+        }
 
-        // JSON mode (array or object).
-        if (t.startsWith("[") || t.startsWith("{")) {
-            try {
-                List<ParsedServer> out = new ArrayList<>();
-                if (t.startsWith("[")) {
-                    JSONArray arr = new JSONArray(t);
-                    for (int i = 0; i < arr.length(); i++) {
-                        JSONObject o = arr.optJSONObject(i);
-                        if (o == null) continue;
-                        ParsedServer ps = parseServerObject(o, def, errors, "json[" + i + "]");
-                        if (ps != null) out.add(ps);
+        /** Advances to the next item; false at the end. */
+        boolean next() throws IOException {
+            server = null;
+            error = null;
+            while (json != null) {
+                try {
+                    if (!nextJson()) return false;
+                    if (label != null) return true;
+                } catch (JSONException e) {
+                    if (index > 0) {
+                        json = null;
+                        label = "json[" + index + "]";
+                        error = "invalid json";
+                        pos = text.length();
+                        return true;
                     }
-                } else {
-                    JSONObject o = new JSONObject(t);
-                    ParsedServer ps = parseServerObject(o, def, errors, "json");
-                    if (ps != null) out.add(ps);
+                    json = null; // not JSON after all: read it as lines
                 }
-                return Collections.unmodifiableList(out);
-            } catch (Exception ignored) {
-                // Fall back to line mode.
             }
+            String line;
+            while ((line = nextLine()) != null) {
+                lineNo++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                label = "line " + lineNo;
+                server = parseServerLine(line, defaultType);
+                if (server == null) error = "invalid format";
+                return true;
+            }
+            return false;
+        }
+
+        private String nextLine() throws IOException {
+            if (lines != null) return lines.readLine();
+            if (pos >= text.length()) return null;
+            int nl = text.indexOf('\n', pos);
+            if (nl < 0) nl = text.length();
+            String line = text.substring(pos, nl);
+            pos = nl + 1;
+            return line;
+        }
+
+        /** Reads one JSON value; sets label to null for values that are skipped. */
+        private boolean nextJson() throws JSONException {
+            label = null;
+            if (single) {
+                if (index > 0) return false;
+                Object v = json.nextValue();
+                index++;
+                label = "json";
+                server = parseServerObject((JSONObject) v, defaultType);
+                if (server == null) error = "invalid server";
+                return true;
+            }
+            char c = json.nextClean();
+            if (c == ']') return false;
+            if (index > 0) {
+                if (c != ',') throw new JSONException("expected ,");
+            } else {
+                json.back();
+            }
+            Object v = json.nextValue();
+            int i = index++;
+            if (!(v instanceof JSONObject)) return true;
+            label = "json[" + i + "]";
+            server = parseServerObject((JSONObject) v, defaultType);
+            if (server == null) error = "invalid server";
+            return true;
         }
-
-        String[] lines = t.split("\\r?\\n");
-        List<ParsedServer> out = new ArrayList<>();
-        for (int i = 0; i < lines.length; i++) {
-            String line = lines[i] != null ? lines[i].trim() : "";
-            if (line.isEmpty()) continue;
-            if (line.startsWith("#")) continue;
-            ParsedServer ps = parseServerLine(line, def, errors, "line " + (i + 1));
-            if (ps != null) out.add(ps);
-        }
-        return Collections.unmodifiableList(out);
     }
 
-    private static ParsedServer parseServerObject(
-            JSONObject o, String defaultType, List<String> errors, String label) {
+    private static ParsedServer parseServerObject(JSONObject o, String defaultType) {
         if (o == null) return null;
         String type =
                 safe(o.optString("type", defaultType))
@@ -489,16 +570,11 @@ final class RemoteHttpServer {
         String remark = o.optString("remark", "");
         boolean activate = readBool(o.opt("activate"), false);
 
-        ParsedServer ps =
-                validateAndBuild(type, baseUrl, apiKey, username, password, displayName, remark, activate);
-        if (ps == null) {
-            errors.add(label + ": invalid server");
-        }
-        return ps;
+        return validateAndBuild(
+                type, baseUrl, apiKey, username, password, displayName, remark, activate);
     }
 
-    private static ParsedServer parseServerLine(
-            String line, String defaultType, List<String> errors, String label) {
+    private static ParsedServer parseServerLine(String line, String defaultType) {
         if (line == null) return null;
         String raw = line.trim();
         if (raw.isEmpty()) return null;
@@ -574,12 +650,8 @@ final class RemoteHttpServer {
             }
         }
 
-        ParsedServer ps =
-                validateAndBuild(type, baseUrl, apiKey, username, password, displayName, remark, activate);
-        if (ps == null) {
-            errors.add(label + ": invalid format");
-        }
-        return ps;
+        return validateAndBuild(
+                type, baseUrl, apiKey, username, password, displayName, remark, activate);
     }
 
     private static ParsedServer validateAndBuild(
@@ -627,66 +699,36 @@ final class RemoteHttpServer {
         return s != null ? s : "";
     }
 
-    private static JSONObject jsonError(String msg) {
-        try {
-            JSONObject o = new JSONObject();
-            o.put("ok", false);
-            o.put("error", msg != null ? msg : "error");
-            return o;
-        } catch (JSONException e) {
-            return new JSONObject();
-        }
-    }
-
-    private static void writeJson(OutputStream out, JSONObject obj) {
-        byte[] b = (obj != null ? obj.toString() : "{}").getBytes(UTF8);
-        writeBytes(out, 200, "application/json; charset=utf-8", b);
-    }
-
-    private static void writePlain(OutputStream out, int code, String text) {
-        byte[] b = (text != null ? text : "").getBytes(UTF8);
-        writeBytes(out, code, "text/plain; charset=utf-8", b);
-    }
-
-    private static void writeBytes(OutputStream out, int code, String contentType, byte[] body) {
-        if (out == null) return;
-        byte[] b = body != null ? body : new byte[0];
-        String status = statusText(code);
+    private static void writeAsset(
+            NioHttpEngine.Response out, HttpRequest req, StaticAssets.Asset asset) {
+        boolean gzip = asset.useGzip(req.headerContains("accept-encoding", "gzip"));
+        boolean notModified = asset.matches(req.header("if-none-match"));
+        ByteBuffer body = asset.body(gzip);
+        StringBuilder sb = new StringBuilder(256);
+        int code = notModified ? 304 : 200;
+        sb.append("HTTP/1.1 ").append(code).append(' ');
+        sb.append(HttpResponses.statusText(code)).append("\r\n");
+        sb.append("ETag: ").append(asset.etag(gzip)).append("\r\n");
+        sb.append("Cache-Control: ").append(asset.cacheControl).append("\r\n");
+        sb.append("Vary: Accept-Encoding\r\n");
+        sb.append("Connection: ").append(out.keepAlive ? "keep-alive" : "close").append("\r\n");
+        if (!notModified) {
+            sb.append("Content-Type: ").append(asset.contentType).append("\r\n");
+            if (gzip) sb.append("Content-Encoding: gzip\r\n");
+            sb.append("Content-Length: ").append(body.remaining()).append("\r\n");
+        }
+        sb.append("\r\n");
+        out.status = code;
         try {
-            String headers =
-                    "HTTP/1.1 "
-                            + code
-                            + " "
-                            + status
-                            + "\r\n"
-                            + "Content-Type: "
-                            + contentType
-                            + "\r\n"
-                            + "Cache-Control: no-store\r\n"
-                            + "Connection: close\r\n"
-                            + "Content-Length: "
-                            + b.length
-                            + "\r\n"
-                            + "\r\n";
-            out.write(headers.getBytes(UTF8));
-            out.write(b);
-            out.flush();
+            out.write(sb.toString().getBytes(UTF8));
         } catch (IOException ignored) {
+            return;
         }
-    }
-
-    private static String statusText(int code) {
-        if (code == 200) return "OK";
-        if (code == 400) return "Bad Request";
-        if (code == 401) return "Unauthorized";
-        if (code == 404) return "Not Found";
-        if (code == 405) return "Method Not Allowed";
-        if (code == 500) return "Internal Server Error";
-        return "OK";
+        if (!notModified) out.attach(body);
     }
 
     private static int parseInt(String s, int fallback) {
-        if (s == null) return fallback;
+        if (s == null || s.trim().isEmpty()) return fallback;
         try {
             return Integer.parseInt(s.trim());
         } catch (NumberFormatException e) {
@@ -694,68 +736,6 @@ final class RemoteHttpServer {
         }
     }
 
-    private static String readLine(InputStream in) throws IOException {
-        if (in == null) return null;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(64);
-        int c;
-        boolean gotAny = false;
-        while ((c = in.read()) != -1) {
-            gotAny = true;
-            if (c == '\n') break;
-            if (c == '\r') {
-                in.mark(1);
-                int next = in.read();
-                if (next != '\n') {
-                    in.reset();
-                }
-                break;
-            }
-            baos.write(c);
-            if (baos.size() > 8192) break;
-        }
-        if (!gotAny) return null;
-        return baos.toString("UTF-8");
-    }
-
-    private static byte[] readBytes(InputStream in, int length) throws IOException {
-        int len = Math.max(0, length);
-        byte[] buf = new byte[len];
-        int off = 0;
-        while (off < len) {
-            int n = in.read(buf, off, len - off);
-            if (n == -1) break;
-            off += n;
-        }
-        if (off == len) return buf;
-        byte[] out = new byte[off];
-        System.arraycopy(buf, 0, out, 0, off);
-        return out;
-    }
-
-    private static Map<String, String> parseQuery(String query) {
-        Map<String, String> out = new HashMap<>();
-        String q = query != null ? query : "";
-        if (q.isEmpty()) return out;
-        String[] parts = q.split("&");
-        for (String part : parts) {
-            if (part == null || part.isEmpty()) continue;
-            int idx = part.indexOf('=');
-            String k = idx >= 0 ? part.substring(0, idx) : part;
-            String v = idx >= 0 ? part.substring(idx + 1) : "";
-            out.put(urlDecode(k), urlDecode(v));
-        }
-        return out;
-    }
-
-    private static String urlDecode(String s) {
-        String v = s != null ? s : "";
-        try {
-            return URLDecoder.decode(v, "UTF-8");
-        } catch (Exception e) {
-            return v;
-        }
-    }
-
     private static boolean readBool(Object v, boolean fallback) {
         if (v == null) return fallback;
         if (v instanceof Boolean) return (Boolean) v;
@@ -774,48 +754,6 @@ final class RemoteHttpServer {
         return v;
     }
 
-    private static void closeQuietly(ServerSocket ss) {
-        if (ss == null) return;
-        try {
-            ss.close();
-        } catch (IOException ignored) {
-        }
-    }
-
-    private static void closeQuietly(Socket s) {
-        if (s == null) return;
-        try {
-            s.close();
-        } catch (IOException ignored) {
-        }
-    }
-
-    private String indexHtml() {
-        String cached = cachedIndexHtml;
-        if (cached != null && !cached.isEmpty()) return cached;
-        InputStream in = null;
-        try {
-            in = appContext.getResources().openRawResource(R.raw.remote_index);
-            ByteArrayOutputStream baos = new ByteArrayOutputStream(16 * 1024);
-            byte[] buf = new byte[8192];
-            int n;
-            while ((n = in.read(buf)) >= 0) {
-                baos.write(buf, 0, n);
-            }
-            cachedIndexHtml = baos.toString("UTF-8");
-            return cachedIndexHtml;
-        } catch (Exception e) {
-            return "<!doctype html><html><body><pre>remote ui missing</pre></body></html>";
-        } finally {
-            if (in != null) {
-                try {
-                    in.close();
-                } catch (IOException ignored) {
-                }
-            }
-        }
-    }
-
     private static final class ParsedServer {
         final ServerConfig config;
         final boolean activate;
@@ -0,0 +1,236 @@
+package com.linplayer.tvlegacy.remote;
+
+import android.os.SystemClock;
+import com.linplayer.tvlegacy.backend.MediaScheduler;
+import java.math.BigDecimal;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * What {@code /api/metrics} reports: engine, router, player-queue and media-scheduler counters,
+ * read when asked.
+ * Nothing on the request path waits for a reader; a report is a sum over striped cells, so values
+ * taken at the same time may be a request apart.
+ */
+final class RemoteMetrics {
+    private static final String PREFIX = "linplayer_remote_";
+
+    private final NioHttpEngine engine;
+    private final RemoteRouter router;
+    private final KeyChannel keys;
+    private final long startedAt = SystemClock.elapsedRealtime();
+
+    RemoteMetrics(NioHttpEngine engine, RemoteRouter router, KeyChannel keys) {
+        this.engine = engine;
+        this.router = router;
+        this.keys = keys;
+    }
+
+    JSONObject toJson() throws JSONException {
+        NioHttpEngine.Counters c = engine.counters;
+        JSONObject o = new JSONObject();
+        o.put("ok", true);
+        o.put("uptimeMs", SystemClock.elapsedRealtime() - startedAt);
+
+        JSONObject conns = new JSONObject();
+        conns.put("active", engine.activeConnections());
+        conns.put("streams", engine.activeStreams());
+        conns.put("accepted", c.accepted.sum());
+        conns.put("refused", c.refused.sum());
+        conns.put("idleTimeouts", c.idleTimeouts.sum());
+        conns.put("slowClients", c.slowClients.sum());
+        o.put("connections", conns);
+
+        JSONObject reqs = new JSONObject();
+        reqs.put("handled", c.requests.sum());
+        reqs.put("queued", engine.queuedRequests());
+        reqs.put("busyWorkers", engine.busyWorkers());
+        reqs.put("shed", c.shed.sum());
+        reqs.put("rejected", c.rejected.sum());
+        reqs.put("unmatched", router.unmatched.sum());
+        reqs.put("limited", router.limiter.limited.sum());
+        reqs.put("authFailures", router.limiter.authFailures.sum());
+        o.put("requests", reqs);
+
+        JSONObject bytes = new JSONObject();
+        bytes.put("in", c.bytesIn.sum());
+        bytes.put("out", c.bytesOut.sum());
+        o.put("bytes", bytes);
+
+        JSONObject player = new JSONObject();
+        player.put("commands", PlaybackSession.submittedCommands());
+        player.put("rejected", PlaybackSession.rejectedCommands());
+        player.put("pending", PlaybackSession.pendingCommands());
+        o.put("player", player);
+
+        JSONObject udp = new JSONObject();
+        udp.put("received", keys.received.sum());
+        udp.put("duplicates", keys.duplicates.sum());
+        udp.put("dropped", keys.dropped.sum());
+        o.put("keys", udp);
+
+        MediaScheduler.Stats media = MediaScheduler.stats();
+        JSONObject backend = new JSONObject();
+        backend.put("threads", media.threads);
+        backend.put("running", media.running);
+        JSONArray waitBounds = new JSONArray();
+        for (long b : MediaScheduler.WAIT_BOUNDS_MS) waitBounds.put(b);
+        backend.put("waitBucketsMs", waitBounds);
+        for (int i = 0; i < MediaScheduler.NAMES.length; i++) {
+            JSONObject level = new JSONObject();
+            level.put("submitted", media.submitted[i]);
+            level.put("queued", media.queued[i]);
+            level.put("waitSumMs", media.waitSumNanos[i] / 1000000L);
+            level.put("waitMaxMs", media.waitMaxNanos[i] / 1000000L);
+            level.put("waitP50Ms", media.waitQuantileMs(i, 0.50));
+            level.put("waitP99Ms", media.waitQuantileMs(i, 0.99));
+            JSONArray buckets = new JSONArray();
+            for (long n : media.waitBuckets[i]) buckets.put(n);
+            level.put("waitBuckets", buckets);
+            backend.put(MediaScheduler.NAMES[i], level);
+        }
+        o.put("backend", backend);
+
+        JSONArray bounds = new JSONArray();
+        for (long b : LatencyHistogram.BOUNDS_US) bounds.put(b);
+        o.put("latencyBucketsUs", bounds);
+
+        JSONArray routes = new JSONArray();
+        for (RemoteRouter.Route r : router.routes()) {
+            long[] counts = r.latency.counts();
+            JSONObject ro = new JSONObject();
+            ro.put("method", r.method);
+            ro.put("path", r.path);
+            ro.put("requests", r.requests.sum());
+            ro.put("errors", r.errors.sum());
+            ro.put("sumMs", r.latency.sumNanos() / 1000000L);
+            ro.put("p50Us", LatencyHistogram.quantileUs(counts, 0.50));
+            ro.put("p99Us", LatencyHistogram.quantileUs(counts, 0.99));
+            JSONArray buckets = new JSONArray();
+            for (long n : counts) buckets.put(n);
+            ro.put("buckets", buckets);
+            routes.put(ro);
+        }
+        o.put("routes", routes);
+        return o;
+    }
+
+    /** Prometheus text exposition format 0.0.4. */
+    String toPrometheus() {
+        NioHttpEngine.Counters c = engine.counters;
+        StringBuilder sb = new StringBuilder(4096);
+        gauge(sb, "connections_active", "Open connections.", engine.activeConnections());
+        gauge(sb, "streams_active", "Open event streams and sockets.", engine.activeStreams());
+        counter(sb, "connections_accepted_total", "Accepted connections.", c.accepted.sum());
+        counter(sb, "connections_refused_total", "Refused at the limit.", c.refused.sum());
+        counter(sb, "idle_timeouts_total", "Closed for inactivity.", c.idleTimeouts.sum());
+        counter(sb, "slow_clients_total", "Dropped slow readers.", c.slowClients.sum());
+        counter(sb, "requests_handled_total", "Requests run by a worker.", c.requests.sum());
+        gauge(sb, "requests_queued", "Requests waiting for a worker.", engine.queuedRequests());
+        gauge(sb, "workers_busy", "Workers running a request.", engine.busyWorkers());
+        counter(sb, "requests_shed_total", "Answered 503, queue full.", c.shed.sum());
+        counter(sb, "requests_rejected_total", "Malformed or too large.", c.rejected.sum());
+        counter(sb, "requests_unmatched_total", "No route (404/405).", router.unmatched.sum());
+        long limited = router.limiter.limited.sum();
+        counter(sb, "requests_limited_total", "Over a client's rate budget.", limited);
+        long authFailures = router.limiter.authFailures.sum();
+        counter(sb, "auth_failures_total", "Requests with a wrong token.", authFailures);
+        counter(sb, "received_bytes_total", "Bytes read from clients.", c.bytesIn.sum());
+        counter(sb, "sent_bytes_total", "Bytes written to clients.", c.bytesOut.sum());
+        long commands = PlaybackSession.submittedCommands();
+        counter(sb, "player_commands_total", "Player commands queued.", commands);
+        long busy = PlaybackSession.rejectedCommands();
+        counter(sb, "player_commands_rejected_total", "Refused as busy.", busy);
+        long pending = PlaybackSession.pendingCommands();
+        gauge(sb, "player_commands_pending", "Not applied yet.", pending);
+        counter(sb, "key_datagrams_total", "UDP key datagrams.", keys.received.sum());
+        long dups = keys.duplicates.sum();
+        counter(sb, "key_duplicates_total", "Repeats acked, not applied.", dups);
+        counter(sb, "key_dropped_total", "Malformed, unsigned or stale.", keys.dropped.sum());
+
+        String duration = PREFIX + "request_duration_seconds";
+        sb.append("# HELP ").append(duration).append(" Route handling time.\n");
+        sb.append("# TYPE ").append(duration).append(" histogram\n");
+        for (RemoteRouter.Route r : router.routes()) {
+            String labels = "method=\"" + r.method + "\",path=\"" + r.path + "\"";
+            long[] counts = r.latency.counts();
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                String le =
+                        i < LatencyHistogram.BOUNDS_US.length
+                                ? BigDecimal.valueOf(LatencyHistogram.BOUNDS_US[i], 6)
+                                        .stripTrailingZeros()
+                                        .toPlainString()
+                                : "+Inf";
+                sb.append(duration).append("_bucket{").append(labels);
+                sb.append(",le=\"").append(le).append("\"} ").append(cumulative).append('\n');
+            }
+            sb.append(duration).append("_sum{").append(labels).append("} ");
+            sb.append(BigDecimal.valueOf(r.latency.sumNanos(), 9).toPlainString()).append('\n');
+            sb.append(duration).append("_count{").append(labels).append("} ");
+            sb.append(cumulative).append('\n');
+        }
+
+        MediaScheduler.Stats media = MediaScheduler.stats();
+        gauge(sb, "backend_threads", "Media I/O threads started.", media.threads);
+        gauge(sb, "backend_running", "Backend calls running.", media.running);
+        String wait = PREFIX + "backend_queue_wait_seconds";
+        sb.append("# HELP ").append(wait).append(" Time backend calls waited for a thread.\n");
+        sb.append("# TYPE ").append(wait).append(" histogram\n");
+        for (int i = 0; i < MediaScheduler.NAMES.length; i++) {
+            String labels = "priority=\"" + MediaScheduler.NAMES[i] + "\"";
+            long[] counts = media.waitBuckets[i];
+            long cumulative = 0;
+            for (int b = 0; b < counts.length; b++) {
+                cumulative += counts[b];
+                String le =
+                        b < MediaScheduler.WAIT_BOUNDS_MS.length
+                                ? BigDecimal.valueOf(MediaScheduler.WAIT_BOUNDS_MS[b], 3)
+                                        .stripTrailingZeros()
+                                        .toPlainString()
+                                : "+Inf";
+                sb.append(wait).append("_bucket{").append(labels);
+                sb.append(",le=\"").append(le).append("\"} ").append(cumulative).append('\n');
+            }
+            sb.append(wait).append("_sum{").append(labels).append("} ");
+            sb.append(BigDecimal.valueOf(media.waitSumNanos[i], 9).toPlainString()).append('\n');
+            sb.append(wait).append("_count{").append(labels).append("} ");
+            sb.append(cumulative).append('\n');
+        }
+        String queued = PREFIX + "backend_queued";
+        sb.append("# HELP ").append(queued).append(" Backend calls waiting for a thread.\n");
+        sb.append("# TYPE ").append(queued).append(" gauge\n");
+        for (int i = 0; i < MediaScheduler.NAMES.length; i++) {
+            sb.append(queued).append("{priority=\"").append(MediaScheduler.NAMES[i]);
+            sb.append("\"} ").append(media.queued[i]).append('\n');
+        }
+
+        String errors = PREFIX + "request_errors_total";
+        sb.append("# HELP ").append(errors);
+        sb.append(" Route responses with status 400 or above, or {ok:false}.\n");
+        sb.append("# TYPE ").append(errors).append(" counter\n");
+        for (RemoteRouter.Route r : router.routes()) {
+            sb.append(errors).append("{method=\"").append(r.method);
+            sb.append("\",path=\"").append(r.path).append("\"} ");
+            sb.append(r.errors.sum()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, long value) {
+        metric(sb, name, "counter", help, value);
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, long value) {
+        metric(sb, name, "gauge", help, value);
+    }
+
+    private static void metric(
+            StringBuilder sb, String name, String type, String help, long value) {
+        sb.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+        sb.append(PREFIX).append(name).append(' ').append(value).append('\n');
+    }
+}
@@ -0,0 +1,214 @@
+package com.linplayer.tvlegacy.remote;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Route table for the remote server. A request finds its route with one hash lookup on the path
+ * and a method match, and the steps every API used to repeat (method check, JSON body parse, token
+ * check, turning exceptions into responses) run here once. Each route keeps its own counters.
+ *
+ * <p>Routes are added before the server starts; the table is read-only afterwards.
+ */
+final class RemoteRouter {
+    /** Parse the body as a JSON object; a bad body is answered with {@code invalid json}. */
+    static final int JSON_BODY = 1;
+    /** Require the token: from the JSON body on {@link #JSON_BODY} routes, else from the query. */
+    static final int AUTH = 2;
+
+    /** Body limit of {@link #JSON_BODY} routes that do not set one. */
+    static final int DEFAULT_JSON_BODY = 64 * 1024;
+    /** Body limit of other routes and unknown paths; enough for a stray form or probe. */
+    static final int DEFAULT_BODY = 4 * 1024;
+
+    interface Endpoint {
+        void handle(Call call) throws IOException, JSONException;
+    }
+
+    interface TokenCheck {
+        boolean accepts(String token);
+    }
+
+    static final class Call {
+        final HttpRequest request;
+        final NioHttpEngine.Response out;
+        /** Parsed body on {@link #JSON_BODY} routes, null otherwise. */
+        final JSONObject body;
+
+        Call(HttpRequest request, NioHttpEngine.Response out, JSONObject body) {
+            this.request = request;
+            this.out = out;
+            this.body = body;
+        }
+    }
+
+    static final class Route {
+        final String method;
+        final String path;
+        final int flags;
+        final int priority;
+        final int maxBody;
+        final Endpoint endpoint;
+        final StripedCounter requests = new StripedCounter();
+        final StripedCounter errors = new StripedCounter();
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        Route(String method, String path, int flags, int priority, int maxBody, Endpoint endpoint) {
+            this.method = method;
+            this.path = path;
+            this.flags = flags;
+            this.priority = priority;
+            this.maxBody = maxBody;
+            this.endpoint = endpoint;
+        }
+
+        boolean has(int flag) {
+            return (flags & flag) != 0;
+        }
+    }
+
+    private final Map<String, Route[]> byPath = new HashMap<>();
+    private final List<Route> routes = new ArrayList<>();
+    private final TokenCheck tokens;
+    final RateLimiter limiter = new RateLimiter();
+    final StripedCounter unmatched = new StripedCounter();
+
+    RemoteRouter(TokenCheck tokens) {
+        this.tokens = tokens;
+    }
+
+    RemoteRouter add(String method, String path, int flags, int priority, Endpoint endpoint) {
+        int maxBody = (flags & JSON_BODY) != 0 ? DEFAULT_JSON_BODY : DEFAULT_BODY;
+        return add(method, path, flags, priority, maxBody, endpoint);
+    }
+
+    RemoteRouter add(
+            String method, String path, int flags, int priority, int maxBody, Endpoint endpoint) {
+        Route r = new Route(method, path, flags, priority, maxBody, endpoint);
+        Route[] old = byPath.get(path);
+        Route[] next;
+        if (old == null) {
+            next = new Route[] {r};
+        } else {
+            next = new Route[old.length + 1];
+            System.arraycopy(old, 0, next, 0, old.length);
+            next[old.length] = r;
+        }
+        byPath.put(path, next);
+        routes.add(r);
+        return this;
+    }
+
+    List<Route> routes() {
+        return Collections.unmodifiableList(routes);
+    }
+
+    /** Engine prioritizer: the route's priority, or the default for unknown paths. */
+    int priority(HttpRequest req) {
+        Route r = match(byPath.get(req.path()), req);
+        return r != null ? r.priority : NioHttpEngine.PRIORITY_DEFAULT;
+    }
+
+    /**
+     * Engine admission: reads (GET/HEAD) and everything else draw from separate per-client budgets,
+     * as soon as the head is parsed, before the body is read or a worker is involved.
+     */
+    int retryAfter(HttpRequest req) {
+        boolean read = req.isMethod("GET") || req.isMethod("HEAD");
+        return limiter.admit(
+                req.remoteAddress(), read ? RateLimiter.READ : RateLimiter.CONTROL);
+    }
+
+    /** Engine body limit: the route's, so a large upload is refused before it is buffered. */
+    int maxBody(HttpRequest req) {
+        Route r = match(byPath.get(req.path()), req);
+        return r != null ? r.maxBody : DEFAULT_BODY;
+    }
+
+    void dispatch(HttpRequest req, NioHttpEngine.Response out) {
+        Route[] candidates = byPath.get(req.path());
+        if (candidates == null) {
+            unmatched.increment();
+            HttpResponses.writePlain(out, 404, "not found");
+            return;
+        }
+        Route r = match(candidates, req);
+        if (r == null) {
+            unmatched.increment();
+            HttpResponses.writePlain(out, 405, "method not allowed");
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            run(r, req, out);
+        } finally {
+            r.requests.increment();
+            if (out.status >= 400 || out.failed) r.errors.increment();
+            r.latency.record(System.nanoTime() - start);
+        }
+    }
+
+    private void run(Route r, HttpRequest req, NioHttpEngine.Response out) {
+        JSONObject body = null;
+        if (r.has(JSON_BODY)) {
+            try {
+                body = new JSONObject(req.bodyString());
+            } catch (JSONException e) {
+                HttpResponses.writeJson(out, HttpResponses.jsonError("invalid json"));
+                return;
+            }
+        }
+        if (r.has(AUTH)) {
+            String token = body != null ? body.optString("token", "") : req.query("token");
+            if (!tokens.accepts(token)) {
+                limiter.authFailed(req.remoteAddress());
+                // JSON clients read {ok:false}; query-style endpoints have always answered 401.
+                if (body != null) {
+                    HttpResponses.writeJson(out, HttpResponses.jsonError("unauthorized"));
+                } else {
+                    HttpResponses.writePlain(out, 401, "unauthorized");
+                }
+                return;
+            }
+        }
+        try {
+            r.endpoint.handle(new Call(req, out, body));
+        } catch (JSONException e) {
+            if (out.bodyOpen()) {
+                out.abortBody();
+                return;
+            }
+            out.reset();
+            if (body != null) {
+                HttpResponses.writeJson(out, HttpResponses.jsonError("invalid json"));
+            } else {
+                HttpResponses.writePlain(out, 500, "json error");
+            }
+        } catch (IOException | RuntimeException e) {
+            if (out.bodyOpen()) {
+                out.abortBody();
+                return;
+            }
+            out.reset();
+            out.keepAlive = false;
+            HttpResponses.writePlain(out, 500, "internal error");
+        }
+    }
+
+    /** Exact method, with HEAD falling back to the GET route (the response drops its body). */
+    private static Route match(Route[] candidates, HttpRequest req) {
+        if (candidates == null) return null;
+        Route get = null;
+        for (Route r : candidates) {
+            if (req.isMethod(r.method)) return r;
+            if ("GET".equals(r.method)) get = r;
+        }
+        return get != null && req.isMethod("HEAD") ? get : null;
+    }
+}
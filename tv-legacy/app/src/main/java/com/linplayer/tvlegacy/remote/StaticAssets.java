@@ -0,0 +1,139 @@
+package com.linplayer.tvlegacy.remote;
+
+import android.content.Context;
+import com.linplayer.tvlegacy.R;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Remote web UI files, read from resources once and kept as read-only buffers together with a
+ * gzip variant and a content hash ETag, so serving them costs no encoding or compression per hit.
+ */
+final class StaticAssets {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String HTML = "text/html; charset=utf-8";
+    // The page is tiny and changes with app updates; revalidating with the ETag is a cheap 304.
+    private static final String CACHE_CONTROL = "no-cache";
+    private static final String MISSING_HTML =
+            "<!doctype html><html><body><pre>remote ui missing</pre></body></html>";
+
+    static final class Asset {
+        final String contentType;
+        final String cacheControl;
+        private final String hash;
+        private final ByteBuffer identity;
+        private final ByteBuffer gzip;
+
+        Asset(String contentType, String cacheControl, byte[] body) {
+            this.contentType = contentType;
+            this.cacheControl = cacheControl;
+            this.identity = ByteBuffer.wrap(body).asReadOnlyBuffer();
+            byte[] gz = gzip(body);
+            boolean smaller = gz != null && gz.length < body.length;
+            this.gzip = smaller ? ByteBuffer.wrap(gz).asReadOnlyBuffer() : null;
+            this.hash = hash(body);
+        }
+
+        /** Distinct per encoding so caches never mix up the gzip and identity bodies. */
+        String etag(boolean gzipBody) {
+            return "\"" + hash + (gzipBody ? "-gz" : "") + "\"";
+        }
+
+        /** True when {@code If-None-Match} names either variant (or is {@code *}). */
+        boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null || ifNoneMatch.isEmpty()) return false;
+            return ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(hash);
+        }
+
+        /** Whether the gzip body should be sent; only when accepted and actually smaller. */
+        boolean useGzip(boolean acceptGzip) {
+            return acceptGzip && gzip != null;
+        }
+
+        ByteBuffer body(boolean gzipBody) {
+            return (gzipBody && gzip != null ? gzip : identity).duplicate();
+        }
+    }
+
+    private final Context appContext;
+    private volatile Map<String, Asset> assets;
+
+    StaticAssets(Context context) {
+        this.appContext = context.getApplicationContext();
+    }
+
+    /** Asset for a request path, or null when nothing is bundled under it. */
+    Asset get(String path) {
+        Map<String, Asset> m = assets;
+        if (m == null) m = load();
+        return m.get(path != null ? path : "");
+    }
+
+    private synchronized Map<String, Asset> load() {
+        Map<String, Asset> m = assets;
+        if (m != null) return m;
+        byte[] index = readRaw(R.raw.remote_index);
+        Asset indexAsset =
+                new Asset(HTML, CACHE_CONTROL, index != null ? index : MISSING_HTML.getBytes(UTF8));
+
+        Map<String, Asset> out = new HashMap<>();
+        out.put("/", indexAsset);
+        out.put("/index.html", indexAsset);
+        assets = Collections.unmodifiableMap(out);
+        return assets;
+    }
+
+    private byte[] readRaw(int resId) {
+        InputStream in = null;
+        try {
+            in = appContext.getResources().openRawResource(resId);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(16 * 1024);
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) >= 0) {
+                baos.write(buf, 0, n);
+            }
+            return baos.toByteArray();
+        } catch (Exception e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static byte[] gzip(byte[] body) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(Math.max(64, body.length / 3));
+        try (GZIPOutputStream gz =
+                new GZIPOutputStream(baos) {
+                    {
+                        def.setLevel(Deflater.BEST_COMPRESSION);
+                    }
+                }) {
+            gz.write(body);
+        } catch (IOException e) {
+            return null;
+        }
+        return baos.toByteArray();
+    }
+
+    private static String hash(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        return String.format(Locale.US, "%08x-%x", crc.getValue(), body.length);
+    }
+}
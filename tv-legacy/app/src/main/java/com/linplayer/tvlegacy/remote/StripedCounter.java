@@ -0,0 +1,32 @@
+package com.linplayer.tvlegacy.remote;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter for hot paths (API 19 has no LongAdder). Each thread adds to one of a few cells, each on
+ * its own cache line, so workers counting the same thing do not contend; reads sum the cells.
+ */
+final class StripedCounter {
+    private static final int STRIPES = 4; // power of two; the engine has a handful of threads
+    private static final int PAD = 8; // longs per cell: 64 bytes
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+    void increment() {
+        add(1);
+    }
+
+    void add(long n) {
+        long id = Thread.currentThread().getId();
+        int stripe = (int) (id ^ (id >>> 3)) & (STRIPES - 1);
+        cells.getAndAdd(stripe * PAD, n);
+    }
+
+    long sum() {
+        long s = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            s += cells.get(i * PAD);
+        }
+        return s;
+    }
+}
@@ -4,7 +4,9 @@ import android.content.Context;
 import com.linplayer.tvlegacy.AppPrefs;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -91,32 +93,13 @@ public final class ServerStore {
         for (int i = 0; i < current.size(); i++) {
             ServerConfig c = current.get(i);
             if (c != null && id.equals(c.id)) {
-                current.set(
-                        i,
-                        new ServerConfig(
-                                id,
-                                config.type,
-                                config.baseUrl,
-                                config.apiKey,
-                                config.username,
-                                config.password,
-                                config.displayName,
-                                config.remark));
+                current.set(i, withId(config, id));
                 replaced = true;
                 break;
             }
         }
         if (!replaced) {
-            current.add(
-                    new ServerConfig(
-                            id,
-                            config.type,
-                            config.baseUrl,
-                            config.apiKey,
-                            config.username,
-                            config.password,
-                            config.displayName,
-                            config.remark));
+            current.add(withId(config, id));
         }
 
         save(context, current);
@@ -131,6 +114,53 @@ public final class ServerStore {
         return find(context, id);
     }
 
+    /**
+     * Adds or replaces several servers with one read and one write, so the list and the active id
+     * change together. {@code activateIndex} picks the entry to activate (-1 for none; the first
+     * entry is still activated when nothing is active yet). Returns the stored configs, with ids,
+     * in input order.
+     */
+    public static List<ServerConfig> upsertAll(
+            Context context, List<ServerConfig> configs, int activateIndex) throws JSONException {
+        if (context == null || configs == null) return Collections.emptyList();
+        List<ServerConfig> current = new ArrayList<>(list(context));
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < current.size(); i++) {
+            index.put(current.get(i).id, i);
+        }
+
+        List<ServerConfig> saved = new ArrayList<>(configs.size());
+        String activateId = "";
+        for (int i = 0; i < configs.size(); i++) {
+            ServerConfig config = configs.get(i);
+            if (config == null) continue;
+            String id = config.id != null ? config.id.trim() : "";
+            if (id.isEmpty()) {
+                id = UUID.randomUUID().toString();
+            }
+            ServerConfig c = withId(config, id);
+            Integer at = index.get(id);
+            if (at != null) {
+                current.set(at, c);
+            } else {
+                index.put(id, current.size());
+                current.add(c);
+            }
+            saved.add(c);
+            if (i == activateIndex) activateId = id;
+        }
+        if (saved.isEmpty()) return Collections.emptyList();
+
+        String activeId = AppPrefs.getActiveServerId(context);
+        if (!activateId.isEmpty()) {
+            activeId = activateId;
+        } else if (activeId == null || activeId.trim().isEmpty()) {
+            activeId = saved.get(0).id;
+        }
+        AppPrefs.setServers(context, toJson(current), activeId);
+        return Collections.unmodifiableList(saved);
+    }
+
     public static void delete(Context context, String serverId) throws JSONException {
         if (context == null) return;
         String id = serverId != null ? serverId.trim() : "";
@@ -156,6 +186,10 @@ public final class ServerStore {
     }
 
     private static void save(Context context, List<ServerConfig> list) throws JSONException {
+        AppPrefs.setServersJson(context, toJson(list));
+    }
+
+    private static String toJson(List<ServerConfig> list) throws JSONException {
         JSONArray arr = new JSONArray();
         if (list != null) {
             for (ServerConfig c : list) {
@@ -164,7 +198,19 @@ public final class ServerStore {
                 arr.put(c.toJson());
             }
         }
-        AppPrefs.setServersJson(context, arr.toString());
+        return arr.toString();
+    }
+
+    private static ServerConfig withId(ServerConfig config, String id) {
+        return new ServerConfig(
+                id,
+                config.type,
+                config.baseUrl,
+                config.apiKey,
+                config.username,
+                config.password,
+                config.displayName,
+                config.remark);
     }
 
     private static String safeId(ServerConfig c) {
@@ -0,0 +1,146 @@
+package com.linplayer.tvlegacy.remote;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parse throughput and bytes allocated per request: the old stream parser (byte-at-a-time
+ * readLine, lower-cased header map, eager query map) against {@link HttpRequest}.
+ */
+public final class HttpParserBench {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte[] STATUS_POLL =
+            ("GET /api/player/status?token=abc123def4&_=1712345678901 HTTP/1.1\r\n"
+                            + "Host: 192.168.1.20:37123\r\n"
+                            + "Connection: keep-alive\r\n"
+                            + "User-Agent: Mozilla/5.0 (Linux; Android 14; Pixel 8) AppleWebKit/537.36"
+                            + " (KHTML, like Gecko) Chrome/124.0 Mobile Safari/537.36\r\n"
+                            + "Accept: */*\r\n"
+                            + "Referer: http://192.168.1.20:37123/?token=abc123def4\r\n"
+                            + "Accept-Encoding: gzip, deflate\r\n"
+                            + "Accept-Language: zh-CN,zh;q=0.9,en;q=0.8\r\n"
+                            + "\r\n")
+                    .getBytes(UTF8);
+
+    private static final byte[] CONTROL_POST = controlPost();
+
+    private HttpParserBench() {}
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        com.sun.management.ThreadMXBean mx =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        mx.setThreadAllocatedMemoryEnabled(true);
+
+        // Warm up both paths so the JIT has settled before measuring.
+        run(mx, "warmup-legacy", iterations / 4, true, false);
+        run(mx, "warmup-inplace", iterations / 4, false, false);
+
+        System.out.println("requests: " + iterations + " (status poll + control post, alternating)");
+        run(mx, "legacy stream parser", iterations, true, true);
+        run(mx, "HttpRequest in place", iterations, false, true);
+    }
+
+    private static void run(
+            com.sun.management.ThreadMXBean mx, String label, int n, boolean legacy, boolean print)
+            throws IOException {
+        long tid = Thread.currentThread().getId();
+        HttpRequest req = new HttpRequest();
+        long sink = 0;
+        long allocBefore = mx.getThreadAllocatedBytes(tid);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            byte[] raw = (i & 1) == 0 ? STATUS_POLL : CONTROL_POST;
+            if (legacy) {
+                sink += parseLegacy(raw);
+            } else {
+                req.reset();
+                req.parse(raw, raw.length);
+                String token = req.query("token");
+                sink += req.path().length() + (token != null ? token.length() : 0);
+                sink += req.bodyLength() + (req.keepAlive() ? 1 : 0);
+            }
+        }
+        long elapsed = System.nanoTime() - t0;
+        long alloc = mx.getThreadAllocatedBytes(tid) - allocBefore;
+        if (!print) return;
+        System.out.printf(
+                "%-22s %10.0f req/s %8.1f bytes/req  (sink %d)%n",
+                label, n / (elapsed / 1e9), alloc / (double) n, sink);
+    }
+
+    /** Mirrors the head/query handling RemoteHttpServer used before the in-place parser. */
+    private static int parseLegacy(byte[] raw) throws IOException {
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(raw));
+        String requestLine = readLine(in);
+        String[] parts = requestLine.split(" ");
+        String fullPath = parts[1].trim();
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while ((line = readLine(in)) != null) {
+            if (line.isEmpty()) break;
+            int idx = line.indexOf(':');
+            if (idx <= 0) continue;
+            headers.put(line.substring(0, idx).trim().toLowerCase(), line.substring(idx + 1).trim());
+        }
+        String cl = headers.get("content-length");
+        int contentLength = cl != null ? Integer.parseInt(cl.trim()) : 0;
+        int q = fullPath.indexOf('?');
+        String path = q >= 0 ? fullPath.substring(0, q) : fullPath;
+        Map<String, String> query = new HashMap<>();
+        if (q >= 0) {
+            for (String part : fullPath.substring(q + 1).split("&")) {
+                int idx = part.indexOf('=');
+                String k = idx >= 0 ? part.substring(0, idx) : part;
+                String v = idx >= 0 ? part.substring(idx + 1) : "";
+                query.put(URLDecoder.decode(k, "UTF-8"), URLDecoder.decode(v, "UTF-8"));
+            }
+        }
+        String token = query.get("token");
+        return path.length() + (token != null ? token.length() : 0) + contentLength;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(64);
+        int c;
+        boolean gotAny = false;
+        while ((c = in.read()) != -1) {
+            gotAny = true;
+            if (c == '\n') break;
+            if (c == '\r') {
+                in.mark(1);
+                int next = in.read();
+                if (next != '\n') in.reset();
+                break;
+            }
+            baos.write(c);
+        }
+        if (!gotAny) return null;
+        return baos.toString("UTF-8");
+    }
+
+    private static byte[] controlPost() {
+        String body = "{\"token\":\"abc123def4\",\"action\":\"seekbyms\",\"value\":10000}";
+        return ("POST /api/player/control HTTP/1.1\r\n"
+                        + "Host: 192.168.1.20:37123\r\n"
+                        + "Connection: keep-alive\r\n"
+                        + "Content-Type: application/json\r\n"
+                        + "Content-Length: "
+                        + body.length()
+                        + "\r\n"
+                        + "Accept: */*\r\n"
+                        + "Origin: http://192.168.1.20:37123\r\n"
+                        + "\r\n"
+                        + body)
+                .getBytes(UTF8);
+    }
+}
@@ -0,0 +1,484 @@
+package com.linplayer.tvlegacy.remote;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.linplayer.tvlegacy.AppPrefs;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closed-loop load against {@link RemoteHttpServer} over loopback. The server runs unchanged on
+ * JVM stand-ins for the platform (see {@code stubs/}): an in-memory preferences file behind
+ * {@code ServerStore} and a fake player behind {@code PlaybackSession}. Each client holds one
+ * keep-alive connection and sends its next request as soon as the previous answer is read, picking
+ * status polls, control commands and bulk imports by weight.
+ *
+ * <p>Reports per-kind throughput and latency percentiles, the server's thread count, and bytes
+ * allocated by server threads (the I/O thread, workers and the main thread) while measuring.
+ */
+public final class RemoteLoadBench {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String TOKEN = "benchtoken";
+    private static final String[] KINDS = {"status", "control", "bulk"};
+    private static final int STATUS = 0;
+    private static final int CONTROL = 1;
+    private static final int BULK = 2;
+
+    private RemoteLoadBench() {}
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = options(args);
+        int clients = Integer.parseInt(opts.getOrDefault("clients", "16"));
+        int seconds = Integer.parseInt(opts.getOrDefault("seconds", "20"));
+        int warmup = Integer.parseInt(opts.getOrDefault("warmup", "5"));
+        int bulkLines = Integer.parseInt(opts.getOrDefault("bulk-lines", "100"));
+        int thinkMs = Integer.parseInt(opts.getOrDefault("think-ms", "0"));
+        boolean rateLimit = opts.containsKey("rate-limit");
+        int[] weights = mix(opts.getOrDefault("mix", "status=80,control=15,bulk=5"));
+
+        Context context = new Context();
+        RemoteHttpServer server = new RemoteHttpServer(context);
+        server.start(TOKEN, 0);
+        if (!server.isRunning()) throw new IOException("server did not start");
+        server.setRateLimited(rateLimit);
+        attachPlayer();
+        // Imports would otherwise grow the stored list without bound and slow every later write.
+        Handler main = new Handler(Looper.getMainLooper());
+        Runnable prune =
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        AppPrefs.setServers(context, "[]", "");
+                        main.postDelayed(this, 1000);
+                    }
+                };
+        main.postDelayed(prune, 1000);
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmup);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+        Client[] all = new Client[clients];
+        for (int i = 0; i < clients; i++) {
+            all[i] = new Client(server.getPort(), weights, bulkLines, thinkMs, measureFrom, end);
+            Thread t = new Thread(all[i], "bench-client-" + i);
+            t.setDaemon(true);
+            all[i].thread = t;
+            t.start();
+        }
+
+        sleepUntil(measureFrom);
+        Map<Long, Long> allocBefore = serverAllocations(threads);
+        long gcCountBefore = gcCount();
+        long gcTimeBefore = gcTimeMs();
+        threads.resetPeakThreadCount();
+
+        sleepUntil(end);
+        Map<Long, Long> allocAfter = serverAllocations(threads);
+        int serverThreads = allocAfter.size();
+        long allocated = 0;
+        for (Map.Entry<Long, Long> e : allocAfter.entrySet()) {
+            Long before = allocBefore.get(e.getKey());
+            allocated += e.getValue() - (before != null ? before : 0);
+        }
+        long gcCount = gcCount() - gcCountBefore;
+        long gcTime = gcTimeMs() - gcTimeBefore;
+        int peakThreads = threads.getPeakThreadCount();
+        for (Client c : all) c.thread.join(5000);
+        server.stop();
+
+        System.out.printf(
+                "clients %d, %d s after %d s warmup, mix status=%d control=%d bulk=%d"
+                        + " (%d lines), rate limit %s%n",
+                clients,
+                seconds,
+                warmup,
+                weights[STATUS],
+                weights[CONTROL],
+                weights[BULK],
+                bulkLines,
+                rateLimit ? "on" : "off");
+        System.out.printf(
+                "%-8s %10s %10s %9s %9s %9s %9s %8s %8s%n",
+                "kind", "requests", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "non-2xx",
+                "errors");
+        long total = 0;
+        Samples everything = new Samples();
+        StringBuilder failures = new StringBuilder();
+        for (int k = 0; k < KINDS.length; k++) {
+            Samples merged = new Samples();
+            long[] statuses = new long[600];
+            long errors = 0;
+            for (Client c : all) {
+                merged.addAll(c.samples[k]);
+                for (int i = 0; i < statuses.length; i++) statuses[i] += c.statuses[k][i];
+                errors += c.errors[k];
+            }
+            long non2xx = 0;
+            for (int i = 0; i < statuses.length; i++) {
+                if (statuses[i] == 0 || (i >= 200 && i < 300)) continue;
+                non2xx += statuses[i];
+                failures.append(' ').append(KINDS[k]).append(' ').append(i);
+                failures.append('=').append(statuses[i]);
+            }
+            everything.addAll(merged);
+            total += merged.size;
+            print(KINDS[k], merged, seconds, non2xx, errors);
+        }
+        print("total", everything, seconds, -1, -1);
+        if (failures.length() > 0) System.out.println("non-2xx by status:" + failures);
+        System.out.printf(
+                "threads: %d server (I/O, workers, key channel, main), %d peak in JVM%n",
+                serverThreads, peakThreads);
+        System.out.printf(
+                "server allocation: %.1f MB/s, %.0f bytes/request; GC: %d collections, %d ms%n",
+                allocated / 1e6 / seconds,
+                total > 0 ? allocated / (double) total : 0,
+                gcCount,
+                gcTime);
+    }
+
+    private static void print(String kind, Samples s, int seconds, long non2xx, long errors) {
+        long[] v = s.sorted();
+        System.out.printf(
+                "%-8s %10d %10.0f %9.3f %9.3f %9.3f %9.3f %8s %8s%n",
+                kind,
+                v.length,
+                v.length / (double) seconds,
+                percentileMs(v, 0.50),
+                percentileMs(v, 0.99),
+                percentileMs(v, 0.999),
+                v.length > 0 ? v[v.length - 1] / 1e6 : 0,
+                non2xx >= 0 ? Long.toString(non2xx) : "",
+                errors >= 0 ? Long.toString(errors) : "");
+    }
+
+    private static double percentileMs(long[] sorted, double q) {
+        if (sorted.length == 0) return 0;
+        int i = (int) Math.ceil(q * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))] / 1e6;
+    }
+
+    private static void attachPlayer() throws InterruptedException {
+        CountDownLatch attached = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper())
+                .post(
+                        () -> {
+                            SimpleExoPlayer p = new SimpleExoPlayer();
+                            p.setPlayWhenReady(true);
+                            PlaybackSession.attach(p, "Bench");
+                            attached.countDown();
+                        });
+        attached.await();
+    }
+
+    /** Allocated bytes by thread id, for server threads only. */
+    private static Map<Long, Long> serverAllocations(com.sun.management.ThreadMXBean mx) {
+        Map<Long, Long> out = new HashMap<>();
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            String name = t.getName();
+            if (!name.startsWith("tv-legacy-remote") && !name.equals("main")) continue;
+            if (t == Thread.currentThread()) continue;
+            long bytes = mx.getThreadAllocatedBytes(t.getId());
+            if (bytes >= 0) out.put(t.getId(), bytes);
+        }
+        return out;
+    }
+
+    private static long gcCount() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            n += Math.max(0, gc.getCollectionCount());
+        }
+        return n;
+    }
+
+    private static long gcTimeMs() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            n += Math.max(0, gc.getCollectionTime());
+        }
+        return n;
+    }
+
+    private static void sleepUntil(long nanoTime) throws InterruptedException {
+        long left;
+        while ((left = nanoTime - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(left);
+        }
+    }
+
+    private static Map<String, String> options(String[] args) {
+        Map<String, String> out = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            if (!a.startsWith("--")) throw new IllegalArgumentException("unexpected " + a);
+            String name = a.substring(2);
+            if (name.equals("rate-limit")) {
+                out.put(name, "");
+            } else if (i + 1 < args.length) {
+                out.put(name, args[++i]);
+            } else {
+                throw new IllegalArgumentException("missing value for " + a);
+            }
+        }
+        return out;
+    }
+
+    /** {@code status=80,control=15,bulk=5} to weights by kind. */
+    private static int[] mix(String spec) {
+        int[] w = new int[KINDS.length];
+        for (String part : spec.split(",")) {
+            String[] kv = part.trim().split("=");
+            int k = Arrays.asList(KINDS).indexOf(kv[0].trim());
+            if (k < 0 || kv.length != 2) throw new IllegalArgumentException("bad mix " + part);
+            w[k] = Integer.parseInt(kv[1].trim());
+        }
+        if (w[STATUS] + w[CONTROL] + w[BULK] <= 0) throw new IllegalArgumentException("empty mix");
+        return w;
+    }
+
+    private static final class Client implements Runnable {
+        private static final String[] CONTROLS = {
+            "{\"action\":\"seekByMs\",\"value\":10000", "{\"action\":\"seekByMs\",\"value\":-10000",
+            "{\"action\":\"volume\",\"value\":60", "{\"action\":\"toggle\",\"value\":0"
+        };
+
+        final Samples[] samples = {new Samples(), new Samples(), new Samples()};
+        final long[][] statuses = new long[KINDS.length][600];
+        final long[] errors = new long[KINDS.length];
+        Thread thread;
+
+        private final int port;
+        private final int[] weights;
+        private final int weightSum;
+        private final int thinkMs;
+        private final long measureFrom;
+        private final long end;
+        private final byte[] statusRequest;
+        private final byte[][] controlRequests;
+        private final byte[] bulkRequest;
+        private Socket socket;
+        private InputStream in;
+        private OutputStream out;
+
+        Client(int port, int[] weights, int bulkLines, int thinkMs, long measureFrom, long end) {
+            this.port = port;
+            this.weights = weights;
+            this.weightSum = weights[STATUS] + weights[CONTROL] + weights[BULK];
+            this.thinkMs = thinkMs;
+            this.measureFrom = measureFrom;
+            this.end = end;
+            this.statusRequest =
+                    ("GET /api/player/status?token=" + TOKEN + " HTTP/1.1\r\n"
+                                    + "Host: 127.0.0.1\r\n\r\n")
+                            .getBytes(UTF8);
+            this.controlRequests = new byte[CONTROLS.length][];
+            for (int i = 0; i < CONTROLS.length; i++) {
+                String body = CONTROLS[i] + ",\"token\":\"" + TOKEN + "\"}";
+                controlRequests[i] = post("/api/player/control", "application/json", body);
+            }
+            StringBuilder lines = new StringBuilder(bulkLines * 64);
+            for (int i = 0; i < bulkLines; i++) {
+                lines.append("emby|http://10.0.").append(i / 250).append('.').append(i % 250 + 1);
+                lines.append(":8096|key").append(i).append("|||Bench ").append(i).append('\n');
+            }
+            this.bulkRequest =
+                    post(
+                            "/api/bulkAddServers/text?activateFirst=false&token=" + TOKEN,
+                            "text/plain",
+                            lines.toString());
+        }
+
+        @Override
+        public void run() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int control = 0;
+            long now;
+            while ((now = System.nanoTime()) < end) {
+                int pick = random.nextInt(weightSum);
+                int kind = BULK;
+                if (pick < weights[STATUS]) kind = STATUS;
+                else if (pick < weights[STATUS] + weights[CONTROL]) kind = CONTROL;
+                byte[] request =
+                        kind == STATUS
+                                ? statusRequest
+                                : kind == CONTROL
+                                        ? controlRequests[control++ % controlRequests.length]
+                                        : bulkRequest;
+                boolean measured = now >= measureFrom;
+                try {
+                    if (socket == null) connect();
+                    long t0 = System.nanoTime();
+                    out.write(request);
+                    out.flush();
+                    int status = readResponse();
+                    long elapsed = System.nanoTime() - t0;
+                    if (measured && t0 < end) {
+                        samples[kind].add(elapsed);
+                        if (status >= 0 && status < 600) statuses[kind][status]++;
+                    }
+                } catch (IOException e) {
+                    if (measured) errors[kind]++;
+                    disconnect();
+                }
+                if (thinkMs > 0) {
+                    try {
+                        Thread.sleep(thinkMs);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            }
+            disconnect();
+        }
+
+        private void connect() throws IOException {
+            Socket s = new Socket();
+            s.setTcpNoDelay(true);
+            s.connect(new InetSocketAddress("127.0.0.1", port), 2000);
+            s.setSoTimeout(10000);
+            socket = s;
+            in = new BufferedInputStream(s.getInputStream(), 16 * 1024);
+            out = s.getOutputStream();
+        }
+
+        private void disconnect() {
+            Socket s = socket;
+            socket = null;
+            if (s == null) return;
+            try {
+                s.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        /** Reads one response, discarding the body; returns the status code. */
+        private int readResponse() throws IOException {
+            String statusLine = readLine();
+            int sp = statusLine.indexOf(' ');
+            if (!statusLine.startsWith("HTTP/1.") || sp < 0 || statusLine.length() < sp + 4) {
+                throw new IOException("bad status line: " + statusLine);
+            }
+            int status = Integer.parseInt(statusLine.substring(sp + 1, sp + 4));
+            long length = -1;
+            boolean chunked = false;
+            boolean close = statusLine.startsWith("HTTP/1.0");
+            String line;
+            while (!(line = readLine()).isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon <= 0) continue;
+                String name = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length")) {
+                    length = Long.parseLong(value);
+                } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                    chunked = value.equalsIgnoreCase("chunked");
+                } else if (name.equalsIgnoreCase("Connection")) {
+                    close = value.equalsIgnoreCase("close");
+                }
+            }
+            if (chunked) {
+                long size;
+                while ((size = Long.parseLong(stripExtensions(readLine()), 16)) > 0) {
+                    skip(size);
+                    readLine();
+                }
+                while (!readLine().isEmpty()) {
+                    // trailers
+                }
+            } else if (length >= 0) {
+                skip(length);
+            } else {
+                while (in.read() >= 0) {
+                    // close-delimited
+                }
+                close = true;
+            }
+            if (close) disconnect();
+            return status;
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder sb = new StringBuilder(64);
+            int c;
+            while ((c = in.read()) != '\n') {
+                if (c < 0) throw new IOException("connection closed");
+                if (c != '\r') sb.append((char) c);
+            }
+            return sb.toString();
+        }
+
+        private void skip(long n) throws IOException {
+            while (n > 0) {
+                long skipped = in.skip(n);
+                if (skipped <= 0) {
+                    if (in.read() < 0) throw new IOException("connection closed");
+                    skipped = 1;
+                }
+                n -= skipped;
+            }
+        }
+
+        private static String stripExtensions(String sizeLine) {
+            int semi = sizeLine.indexOf(';');
+            return (semi >= 0 ? sizeLine.substring(0, semi) : sizeLine).trim();
+        }
+
+        private static byte[] post(String path, String type, String body) {
+            byte[] b = body.getBytes(UTF8);
+            byte[] head =
+                    ("POST " + path + " HTTP/1.1\r\n"
+                                    + "Host: 127.0.0.1\r\n"
+                                    + "Content-Type: " + type + "\r\n"
+                                    + "Content-Length: " + b.length + "\r\n\r\n")
+                            .getBytes(UTF8);
+            byte[] all = Arrays.copyOf(head, head.length + b.length);
+            System.arraycopy(b, 0, all, head.length, b.length);
+            return all;
+        }
+    }
+
+    /** Latencies in nanoseconds; owned by one client thread until merged. */
+    private static final class Samples {
+        long[] values = new long[1024];
+        int size;
+
+        void add(long v) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = v;
+        }
+
+        void addAll(Samples other) {
+            if (size + other.size > values.length) {
+                values = Arrays.copyOf(values, Math.max(values.length * 2, size + other.size));
+            }
+            System.arraycopy(other.values, 0, values, size, other.size);
+            size += other.size;
+        }
+
+        long[] sorted() {
+            long[] out = Arrays.copyOf(values, size);
+            Arrays.sort(out);
+            return out;
+        }
+    }
+}
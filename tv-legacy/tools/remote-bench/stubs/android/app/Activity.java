@@ -0,0 +1,10 @@
+package android.app;
+
+import android.content.Context;
+import android.view.KeyEvent;
+
+public class Activity extends Context {
+    public boolean dispatchKeyEvent(KeyEvent event) {
+        return false;
+    }
+}
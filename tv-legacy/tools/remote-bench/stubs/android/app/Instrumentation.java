@@ -0,0 +1,7 @@
+package android.app;
+
+import android.view.KeyEvent;
+
+public class Instrumentation {
+    public void sendKeySync(KeyEvent event) {}
+}
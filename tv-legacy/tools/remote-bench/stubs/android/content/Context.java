@@ -0,0 +1,28 @@
+package android.content;
+
+import android.content.res.Resources;
+
+/** JVM stand-in: one process-wide in-memory preferences file per name. */
+public class Context {
+    public static final int MODE_PRIVATE = 0;
+
+    private static final java.util.Map<String, SharedPreferences> PREFS =
+            new java.util.concurrent.ConcurrentHashMap<>();
+    private final Resources resources = new Resources();
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public Resources getResources() {
+        return resources;
+    }
+
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        SharedPreferences p = PREFS.get(name);
+        if (p != null) return p;
+        SharedPreferences fresh = new MemoryPreferences();
+        p = PREFS.putIfAbsent(name, fresh);
+        return p != null ? p : fresh;
+    }
+}
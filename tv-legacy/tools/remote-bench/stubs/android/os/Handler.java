@@ -0,0 +1,39 @@
+package android.os;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/** Posts to the main thread; removeCallbacks cancels what is still pending. */
+public class Handler {
+    private final Map<Runnable, List<Future<?>>> pending = new IdentityHashMap<>();
+
+    public Handler(Looper looper) {}
+
+    public boolean post(Runnable r) {
+        return postDelayed(r, 0);
+    }
+
+    public boolean postDelayed(Runnable r, long delayMillis) {
+        synchronized (pending) {
+            List<Future<?>> list = pending.get(r);
+            if (list == null) pending.put(r, list = new ArrayList<>());
+            list.removeIf(Future::isDone);
+            list.add(
+                    Looper.MAIN_THREAD.schedule(
+                            r, Math.max(0, delayMillis), TimeUnit.MILLISECONDS));
+        }
+        return true;
+    }
+
+    public void removeCallbacks(Runnable r) {
+        synchronized (pending) {
+            List<Future<?>> list = pending.remove(r);
+            if (list == null) return;
+            for (Future<?> f : list) f.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package android.os;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/** A single "main" thread, so main-thread-only code keeps its threading rules. */
+public final class Looper {
+    static final ScheduledExecutorService MAIN_THREAD =
+            Executors.newSingleThreadScheduledExecutor(
+                    r -> {
+                        Thread t = new Thread(r, "main");
+                        t.setDaemon(true);
+                        return t;
+                    });
+    private static final Looper MAIN = new Looper();
+
+    private Looper() {}
+
+    public static Looper getMainLooper() {
+        return MAIN;
+    }
+
+    public static Looper myLooper() {
+        return "main".equals(Thread.currentThread().getName()) ? MAIN : null;
+    }
+}
@@ -0,0 +1,9 @@
+package android.os;
+
+public final class Process {
+    public static final int THREAD_PRIORITY_DISPLAY = -4;
+
+    private Process() {}
+
+    public static void setThreadPriority(int priority) {}
+}
@@ -0,0 +1,109 @@
+package android.util;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import org.json.JSONObject;
+
+/** Compact writer with the subset of the Android API the remote server uses. */
+public final class JsonWriter implements Closeable, Flushable {
+    private final Writer out;
+    // One entry per open object/array: whether it has an element yet.
+    private final ArrayDeque<boolean[]> scopes = new ArrayDeque<>();
+    private boolean afterName;
+
+    public JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        open('{');
+        return this;
+    }
+
+    public JsonWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        open('[');
+        return this;
+    }
+
+    public JsonWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        separate();
+        out.write(JSONObject.quote(name));
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        separate();
+        out.write(value != null ? JSONObject.quote(value) : "null");
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        separate();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        separate();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(Number value) throws IOException {
+        separate();
+        out.write(value != null ? value.toString() : "null");
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        separate();
+        out.write("null");
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void open(char c) throws IOException {
+        separate();
+        out.write(c);
+        scopes.push(new boolean[1]);
+    }
+
+    private JsonWriter close(char c) throws IOException {
+        scopes.pop();
+        out.write(c);
+        return this;
+    }
+
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        boolean[] scope = scopes.peek();
+        if (scope == null) return;
+        if (scope[0]) out.write(',');
+        scope[0] = true;
+    }
+}
@@ -0,0 +1,7 @@
+package com.google.android.exoplayer2;
+
+public final class C {
+    public static final long TIME_UNSET = Long.MIN_VALUE + 1;
+
+    private C() {}
+}
@@ -0,0 +1,14 @@
+package com.google.android.exoplayer2;
+
+public interface Player {
+    int STATE_IDLE = 1;
+    int STATE_BUFFERING = 2;
+    int STATE_READY = 3;
+    int STATE_ENDED = 4;
+
+    interface Listener {
+        default void onEvents(Player player, Events events) {}
+    }
+
+    final class Events {}
+}
@@ -0,0 +1,73 @@
+package com.google.android.exoplayer2;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Fake player for the load generator: a one-hour item that is always ready, with position, play
+ * state and volume kept in fields. Like the real one it is only touched on the main thread.
+ */
+public class SimpleExoPlayer implements Player {
+    private static final Events EVENTS = new Events();
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private long startedAt = -1;
+    private long position;
+    private boolean playWhenReady;
+    private float volume = 1f;
+
+    public long getCurrentPosition() {
+        return startedAt < 0 ? position : position + (System.nanoTime() - startedAt) / 1000000L;
+    }
+
+    public long getDuration() {
+        return 3600000;
+    }
+
+    public boolean getPlayWhenReady() {
+        return playWhenReady;
+    }
+
+    public void setPlayWhenReady(boolean play) {
+        if (play == playWhenReady) return;
+        position = getCurrentPosition();
+        startedAt = play ? System.nanoTime() : -1;
+        playWhenReady = play;
+        fire();
+    }
+
+    public int getPlaybackState() {
+        return STATE_READY;
+    }
+
+    public void stop() {
+        setPlayWhenReady(false);
+    }
+
+    public void seekTo(long positionMs) {
+        position = Math.max(0, Math.min(getDuration(), positionMs));
+        if (startedAt >= 0) startedAt = System.nanoTime();
+        fire();
+    }
+
+    public float getVolume() {
+        return volume;
+    }
+
+    public void setVolume(float v) {
+        volume = v;
+        fire();
+    }
+
+    public void addListener(Listener l) {
+        listeners.add(l);
+    }
+
+    public void removeListener(Listener l) {
+        listeners.remove(l);
+    }
+
+    private void fire() {
+        for (Listener l : listeners) l.onEvents(this, EVENTS);
+    }
+}
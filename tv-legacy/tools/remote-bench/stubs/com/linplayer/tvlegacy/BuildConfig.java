@@ -0,0 +1,8 @@
+package com.linplayer.tvlegacy;
+
+public final class BuildConfig {
+    public static final boolean DEBUG = false;
+    public static final String VERSION_NAME = "bench";
+
+    private BuildConfig() {}
+}
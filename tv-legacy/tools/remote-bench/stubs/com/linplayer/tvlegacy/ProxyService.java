@@ -0,0 +1,14 @@
+package com.linplayer.tvlegacy;
+
+import android.content.Context;
+
+/** The proxy is out of scope for the bench; switching it is a no-op. */
+public final class ProxyService {
+    private ProxyService() {}
+
+    public static void start(Context context) {}
+
+    public static void stop(Context context) {}
+
+    public static void applyConfig(Context context) {}
+}
@@ -0,0 +1,11 @@
+package com.linplayer.tvlegacy;
+
+public final class R {
+    private R() {}
+
+    public static final class raw {
+        public static final int remote_index = 1;
+
+        private raw() {}
+    }
+}